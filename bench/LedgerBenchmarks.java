@@ -0,0 +1,829 @@
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.util.*;
+import java.util.concurrent.*;
+
+// Benchmark harness for the ledger hot paths.
+// JMH refuses benchmarks in the default package and a named package cannot see the
+// application classes, so this mirrors JMH's throughput mode by hand: timed warmup and
+// measurement iterations per size, reporting ops/s plus the gc profiler's allocation
+// figures (gc.alloc.rate in MB/s and gc.alloc.rate.norm in bytes per operation).
+//
+// Build:  bench/build.sh [out-dir]   (compiles src/, then bench/ against it)
+// Run:    java -Xmx8g -cp out LedgerBenchmarks [sizes] [name-filter] [threads]
+//         e.g. java -Xmx8g -cp out LedgerBenchmarks 1000,100000 account 1,8
+public class LedgerBenchmarks {
+    private static final int WARMUP_ITERATIONS = 3;
+    private static final int MEASUREMENT_ITERATIONS = 5;
+    private static final long ITERATION_NANOS = TimeUnit.SECONDS.toNanos(1);
+    private static final int BATCH = 64; // operations between clock reads
+
+    private static final PrintStream CONSOLE = System.out;
+    private static final PrintStream DISCARD = new PrintStream(OutputStream.nullOutputStream());
+    private static final com.sun.management.ThreadMXBean THREADS =
+            (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    static volatile long sink; // keeps results alive, like a Blackhole
+
+    // Users are built with User.restore so setup does not pay for password hashing.
+    // One benchmark: setup builds a structure holding `size` entries, invoke is one operation.
+    // Setup runs before every iteration (JMH Level.Iteration) since most operations append.
+    abstract static class Benchmark {
+        final String name;
+        final boolean concurrent; // measured at every thread count, not just one
+
+        Benchmark(String name, boolean concurrent) {
+            this.name = name;
+            this.concurrent = concurrent;
+        }
+
+        abstract void setup(int size) throws Exception;
+
+        abstract long invoke(ThreadLocalRandom random) throws Exception;
+
+        void tearDown() {}
+    }
+
+    static final class Result {
+        final double[] opsPerSecond = new double[MEASUREMENT_ITERATIONS];
+        long operations;
+        long allocatedBytes;
+        long elapsedNanos;
+    }
+
+    public static void main(String[] args) throws Exception {
+        int[] sizes = parseInts(args.length > 0 ? args[0] : "1000,100000,10000000");
+        String filter = args.length > 1 ? args[1] : "";
+        int[] threadCounts = parseInts(args.length > 2 ? args[2]
+                : "1," + Runtime.getRuntime().availableProcessors());
+
+        CONSOLE.printf("%-54s %10s %8s %5s %16s %12s  %s%n",
+                "Benchmark", "(size)", "Threads", "Cnt", "Score", "Error", "Units");
+        for (Benchmark benchmark : LedgerBenchmarks.all()) {
+            if (!benchmark.name.contains(filter)) {
+                continue;
+            }
+            for (int size : sizes) {
+                for (int threads : benchmark.concurrent ? threadCounts : new int[] {1}) {
+                    report(benchmark.name, size, threads, run(benchmark, size, threads));
+                }
+            }
+        }
+    }
+
+    static List<Benchmark> all() {
+        return Arrays.asList(
+                new AccountDeposit(), new PipelineDeposit(), new AccountWithdraw(), new AccountTransfer(),
+                new RejectedPosting(false, false), new RejectedPosting(false, true),
+                new RejectedPosting(true, false), new RejectedPosting(true, true),
+                new BalanceReadMix(), new Reconciliation(), new RecipientLookup(false), new RecipientLookup(true),
+                new JournaledTransferLoop(), new JournaledPostBatch(), new ShardedTransfers(1), new ShardedTransfers(4),
+                new PipelineTransfers(), new AsyncTransfers(),
+                new JournalReplay(1), new JournalReplay(4),
+                new HistoryPageQuery(), new BalanceAtTime(),
+                new DescriptionSearch(),
+                new BudgetCategoryExpense(), new BudgetReport(), new UserTotalDonations(), new DonationTaxReport(),
+                new ReminderCheck());
+    }
+
+    // Services print to System.out; that output is discarded while measuring
+    static Result run(Benchmark benchmark, int size, int threads) throws Exception {
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        System.setOut(DISCARD);
+        try {
+            for (int i = 0; i < WARMUP_ITERATIONS; i++) {
+                iteration(benchmark, size, threads, pool, new Result(), -1);
+            }
+            Result result = new Result();
+            for (int i = 0; i < MEASUREMENT_ITERATIONS; i++) {
+                iteration(benchmark, size, threads, pool, result, i);
+            }
+            return result;
+        } finally {
+            System.setOut(CONSOLE);
+            pool.shutdown();
+        }
+    }
+
+    private static void iteration(Benchmark benchmark, int size, int threads, ExecutorService pool,
+                                  Result result, int index) throws Exception {
+        benchmark.setup(size);
+        System.gc();
+        List<Future<long[]>> workers = new ArrayList<>();
+        long start = System.nanoTime();
+        long deadline = start + ITERATION_NANOS;
+        for (int t = 0; t < threads; t++) {
+            workers.add(pool.submit(() -> {
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                long threadId = Thread.currentThread().getId();
+                long allocatedBefore = THREADS.getThreadAllocatedBytes(threadId);
+                long operations = 0;
+                long accumulator = 0;
+                do {
+                    for (int i = 0; i < BATCH; i++) {
+                        accumulator += benchmark.invoke(random);
+                    }
+                    operations += BATCH;
+                } while (System.nanoTime() < deadline);
+                sink = accumulator;
+                return new long[] {operations, THREADS.getThreadAllocatedBytes(threadId) - allocatedBefore};
+            }));
+        }
+        long operations = 0;
+        long allocated = 0;
+        for (Future<long[]> worker : workers) {
+            long[] counts = worker.get();
+            operations += counts[0];
+            allocated += counts[1];
+        }
+        long elapsed = System.nanoTime() - start;
+        benchmark.tearDown();
+        if (index >= 0) {
+            result.opsPerSecond[index] = operations * 1e9 / elapsed;
+            result.operations += operations;
+            result.allocatedBytes += allocated;
+            result.elapsedNanos += elapsed;
+        }
+    }
+
+    private static void report(String name, int size, int threads, Result result) {
+        double mean = 0;
+        for (double score : result.opsPerSecond) {
+            mean += score / MEASUREMENT_ITERATIONS;
+        }
+        double variance = 0;
+        for (double score : result.opsPerSecond) {
+            variance += (score - mean) * (score - mean) / (MEASUREMENT_ITERATIONS - 1);
+        }
+        double seconds = result.elapsedNanos / 1e9;
+        CONSOLE.printf("%-54s %10d %8d %5d %16.3f %12.3f  %s%n", name, size, threads,
+                MEASUREMENT_ITERATIONS, mean, Math.sqrt(variance), "ops/s");
+        CONSOLE.printf("%-54s %10d %8d %5d %16.3f %12s  %s%n", name + ":gc.alloc.rate", size, threads,
+                MEASUREMENT_ITERATIONS, result.allocatedBytes / seconds / 1e6, "", "MB/sec");
+        CONSOLE.printf("%-54s %10d %8d %5d %16.3f %12s  %s%n", name + ":gc.alloc.rate.norm", size, threads,
+                MEASUREMENT_ITERATIONS, (double) result.allocatedBytes / result.operations, "", "B/op");
+    }
+
+    private static int[] parseInts(String csv) {
+        return Arrays.stream(csv.split(",")).mapToInt(v -> Integer.parseInt(v.trim())).toArray();
+    }
+
+    // ================= BENCHMARKS ===================
+
+    static final class AccountDeposit extends Benchmark {
+        private Account account;
+
+        AccountDeposit() { super("Account.deposit", false); }
+
+        void setup(int size) {
+            account = new Account("BENCH-DEPOSIT");
+            for (int i = 0; i < size; i++) {
+                account.deposit(100, "Salary");
+            }
+        }
+
+        long invoke(ThreadLocalRandom random) {
+            account.deposit(100, "Salary");
+            return 1;
+        }
+    }
+
+    // Publishing into the ring without a journal: the ledger stage applies behind the producer,
+    // and the ring's backpressure keeps the measured rate at what the stages can sustain
+    static final class PipelineDeposit extends Benchmark {
+        private Account account;
+        private PostingPipeline pipeline;
+        private long last;
+
+        PipelineDeposit() { super("PostingPipeline.publishDeposit", false); }
+
+        void setup(int size) {
+            account = new Account("BENCH-PIPELINE");
+            for (int i = 0; i < size; i++) {
+                account.deposit(100, "Salary");
+            }
+            pipeline = new PostingPipeline(1 << 16, null, null);
+        }
+
+        long invoke(ThreadLocalRandom random) {
+            last = pipeline.publishDeposit(account, 100, "Salary");
+            return 1;
+        }
+
+        void tearDown() {
+            pipeline.awaitNotified(last);
+            pipeline.shutdown();
+        }
+    }
+
+    static final class AccountWithdraw extends Benchmark {
+        private Account account;
+
+        AccountWithdraw() { super("Account.withdraw", false); }
+
+        void setup(int size) throws InsufficientBalanceException {
+            account = new Account("BENCH-WITHDRAW");
+            account.deposit(Money.of(1e12), "Opening balance");
+            for (int i = 1; i < size; i++) {
+                account.withdraw(100, "Groceries");
+            }
+        }
+
+        long invoke(ThreadLocalRandom random) throws InsufficientBalanceException {
+            account.withdraw(1, "Groceries");
+            return 1;
+        }
+    }
+
+    // Uniform random transfers over a pool of accounts holding `size` postings in total
+    static final class AccountTransfer extends Benchmark {
+        private static final int ACCOUNTS = 1024;
+        private Account[] accounts;
+
+        AccountTransfer() { super("Account.transfer", true); }
+
+        void setup(int size) throws InsufficientBalanceException {
+            accounts = new Account[ACCOUNTS];
+            for (int i = 0; i < ACCOUNTS; i++) {
+                accounts[i] = new Account("BENCH" + i);
+                accounts[i].deposit(Money.of(1e9), "Opening balance");
+            }
+            ThreadLocalRandom random = ThreadLocalRandom.current();
+            for (int i = ACCOUNTS; i < size; i += 2) {
+                accounts[random.nextInt(ACCOUNTS)].transfer(accounts[random.nextInt(ACCOUNTS)], 1, "Rent");
+            }
+        }
+
+        long invoke(ThreadLocalRandom random) throws InsufficientBalanceException {
+            accounts[random.nextInt(ACCOUNTS)].transfer(accounts[random.nextInt(ACCOUNTS)], 1, "Rent");
+            return 1;
+        }
+    }
+
+    // Withdrawals and transfers that are always refused, from an empty account with `size`
+    // postings of history: the throwing forms build an exception with its stack trace and
+    // message, the try forms return a status code
+    static final class RejectedPosting extends Benchmark {
+        private final boolean transfer;
+        private final boolean tryForm;
+        private Account account;
+        private Account recipient;
+
+        RejectedPosting(boolean transfer, boolean tryForm) {
+            super("Account." + (tryForm ? (transfer ? "tryTransfer" : "tryWithdraw")
+                    : (transfer ? "transfer" : "withdraw")) + " (rejected)", true);
+            this.transfer = transfer;
+            this.tryForm = tryForm;
+        }
+
+        void setup(int size) throws InsufficientBalanceException {
+            account = new Account("BENCH-EMPTY");
+            recipient = new Account("BENCH-PAYEE");
+            for (int i = 0; i < size; i += 2) {
+                account.deposit(1, "Refund");
+                account.withdraw(1, "Groceries");
+            }
+        }
+
+        long invoke(ThreadLocalRandom random) {
+            long amount = 1 + random.nextInt(100);
+            if (tryForm) {
+                return transfer ? account.tryTransfer(recipient, amount, "Rent") : account.tryWithdraw(amount, "Cash");
+            }
+            try {
+                if (transfer) {
+                    account.transfer(recipient, amount, "Rent");
+                } else {
+                    account.withdraw(amount, "Cash");
+                }
+                return Account.APPLIED;
+            } catch (InsufficientBalanceException e) {
+                return Account.INSUFFICIENT_BALANCE;
+            }
+        }
+    }
+
+    // Dashboard-style mix over a small hot set of accounts: 95% balance reads, 5% transfers
+    static final class BalanceReadMix extends Benchmark {
+        private static final int ACCOUNTS = 16;
+        private Account[] accounts;
+
+        BalanceReadMix() { super("Account.getBalance (95% reads)", true); }
+
+        void setup(int size) throws InsufficientBalanceException {
+            accounts = new Account[ACCOUNTS];
+            for (int i = 0; i < ACCOUNTS; i++) {
+                accounts[i] = new Account("BENCH-READ" + i);
+                accounts[i].deposit(Money.of(1e9), "Opening balance");
+            }
+            ThreadLocalRandom random = ThreadLocalRandom.current();
+            for (int i = ACCOUNTS; i < size; i += 2) {
+                accounts[random.nextInt(ACCOUNTS)].transfer(accounts[random.nextInt(ACCOUNTS)], 1, "Rent");
+            }
+        }
+
+        long invoke(ThreadLocalRandom random) throws InsufficientBalanceException {
+            Account account = accounts[random.nextInt(ACCOUNTS)];
+            if (random.nextInt(20) == 0) {
+                account.transfer(accounts[random.nextInt(ACCOUNTS)], 1, "Rent");
+                return 1;
+            }
+            return account.getBalance();
+        }
+    }
+
+    // Full ledger check over 1024 accounts holding `size` postings in total, mostly transfers
+    static final class Reconciliation extends Benchmark {
+        private static final int ACCOUNTS = 1024;
+        private List<User> users;
+
+        Reconciliation() { super("LedgerReconciler.reconcile", false); }
+
+        void setup(int size) throws InsufficientBalanceException {
+            users = new ArrayList<>();
+            Account[] accounts = new Account[ACCOUNTS];
+            for (int i = 0; i < ACCOUNTS; i++) {
+                User user = User.restore("Bench " + i, "bench@example.com", "0000000000", "", "RECON" + i,
+                        "1 Main St", "Clerk", 30);
+                users.add(user);
+                accounts[i] = user.getAccount();
+                accounts[i].deposit(Money.of(1e9), "Opening balance");
+            }
+            ThreadLocalRandom random = ThreadLocalRandom.current();
+            for (int i = ACCOUNTS; i < size; i += 2) {
+                accounts[random.nextInt(ACCOUNTS)].transfer(accounts[random.nextInt(ACCOUNTS)], 1, "Rent");
+            }
+        }
+
+        long invoke(ThreadLocalRandom random) {
+            LedgerReconciler.Report report = LedgerReconciler.reconcile(users);
+            if (!report.isConsistent()) {
+                throw new IllegalStateException(report.getDiscrepancies().toString());
+            }
+            return report.getTransactions();
+        }
+    }
+
+    // Resolving a transfer recipient among `size` users by a fresh copy of its account number,
+    // as typed at the console: containsKey then get on a String-keyed map hashes the copy
+    // twice, the account index packs it into a long and probes once
+    static final class RecipientLookup extends Benchmark {
+        private final boolean indexed;
+        private Map<String, User> users;
+        private char[][] typed;
+
+        RecipientLookup(boolean indexed) {
+            super(indexed ? "SnapshotUserMap.get (account index)" : "HashMap.containsKey+get (String)", true);
+            this.indexed = indexed;
+        }
+
+        void setup(int size) {
+            users = indexed ? new SnapshotUserMap(null) : new HashMap<>();
+            typed = new char[size][];
+            for (int i = 0; i < size; i++) {
+                String accountNumber = String.valueOf(100_000_000_000L + i * 7919L);
+                users.put(accountNumber, User.restore("Bench " + i, "bench@example.com", "0000000000", "",
+                        accountNumber, "1 Main St", "Clerk", 30));
+                typed[i] = accountNumber.toCharArray();
+            }
+        }
+
+        long invoke(ThreadLocalRandom random) {
+            String accountNumber = new String(typed[random.nextInt(typed.length)]);
+            if (indexed) {
+                return users.get(accountNumber).getAccount().getStripe();
+            }
+            if (!users.containsKey(accountNumber)) {
+                return 0;
+            }
+            return users.get(accountNumber).getAccount().getStripe();
+        }
+    }
+
+    // Payroll-style run of 1000 transfers per operation against a real journal: a loop of
+    // single transfers pays one lock pair and one fsync wait each, a batch pays them once
+    abstract static class JournaledTransfers extends Benchmark {
+        static final int ACCOUNTS = 1024;
+        static final int POSTINGS = 1000;
+        Account[] accounts;
+        Map<String, User> users;
+        private Path walFile;
+        private TransactionJournal journal;
+
+        JournaledTransfers(String name) { super(name, false); }
+
+        void setup(int size) throws Exception {
+            accounts = new Account[ACCOUNTS];
+            users = new HashMap<>();
+            for (int i = 0; i < ACCOUNTS; i++) {
+                User user = User.restore("Payee " + i, "payee@example.com", "1234567890", "", "PAYROLL" + i,
+                        "1 Main St", "Clerk", 30);
+                users.put(user.getAccountNumber(), user);
+                accounts[i] = user.getAccount();
+                accounts[i].deposit(Money.of(1e9), "Opening balance");
+            }
+            ThreadLocalRandom random = ThreadLocalRandom.current();
+            for (int i = ACCOUNTS; i < size; i += 2) {
+                accounts[random.nextInt(ACCOUNTS)].transfer(accounts[random.nextInt(ACCOUNTS)], 1, "Salary");
+            }
+            walFile = Files.createTempFile("bench", ".wal");
+            journal = TransactionJournal.open(walFile, new HashMap<>(), 0);
+            Account.attachJournal(journal);
+        }
+
+        void tearDown() {
+            Account.attachJournal(null);
+            try {
+                journal.close();
+                Files.deleteIfExists(walFile);
+            } catch (Exception e) {
+                throw new IllegalStateException(e);
+            }
+        }
+    }
+
+    static final class JournaledTransferLoop extends JournaledTransfers {
+        JournaledTransferLoop() { super("Account.transfer x1000 (journaled loop)"); }
+
+        long invoke(ThreadLocalRandom random) throws InsufficientBalanceException {
+            for (int i = 0; i < POSTINGS; i++) {
+                accounts[random.nextInt(ACCOUNTS)].transfer(accounts[random.nextInt(ACCOUNTS)], 1, "Salary");
+            }
+            return POSTINGS;
+        }
+    }
+
+    static final class JournaledPostBatch extends JournaledTransfers {
+        JournaledPostBatch() { super("Account.postBatch x1000 (journaled)"); }
+
+        long invoke(ThreadLocalRandom random) throws InsufficientBalanceException {
+            List<Posting> batch = new ArrayList<>(POSTINGS);
+            for (int i = 0; i < POSTINGS; i++) {
+                batch.add(Posting.transfer(accounts[random.nextInt(ACCOUNTS)], accounts[random.nextInt(ACCOUNTS)], 1, "Salary"));
+            }
+            Account.postBatch(batch);
+            return POSTINGS;
+        }
+    }
+
+    // The same 1000 transfers submitted to the shard workers without waiting in between:
+    // each shard drains its mailbox and waits for one fsync per drained batch
+    static final class ShardedTransfers extends JournaledTransfers {
+        private final int shardCount;
+        private ShardedUserRegistry registry;
+        private String[] accountNumbers;
+
+        ShardedTransfers(int shardCount) {
+            super("ShardedUserRegistry.transfer x1000 (" + shardCount + " shards)");
+            this.shardCount = shardCount;
+        }
+
+        void setup(int size) throws Exception {
+            super.setup(size);
+            accountNumbers = new String[ACCOUNTS];
+            for (int i = 0; i < ACCOUNTS; i++) {
+                accountNumbers[i] = accounts[i].getAccountNumber();
+            }
+            registry = new ShardedUserRegistry(users, shardCount);
+        }
+
+        void tearDown() {
+            registry.shutdown();
+            super.tearDown();
+        }
+
+        long invoke(ThreadLocalRandom random) {
+            CompletableFuture<?>[] pending = new CompletableFuture<?>[POSTINGS];
+            for (int i = 0; i < POSTINGS; i++) {
+                pending[i] = registry.transfer(accountNumbers[random.nextInt(ACCOUNTS)],
+                        accountNumbers[random.nextInt(ACCOUNTS)], 1, "Salary");
+            }
+            CompletableFuture.allOf(pending).join();
+            return POSTINGS;
+        }
+    }
+
+    static final class PipelineTransfers extends JournaledTransfers {
+        private PostingPipeline pipeline;
+
+        PipelineTransfers() { super("PostingPipeline.transfer x1000 (journaled)"); }
+
+        void setup(int size) throws Exception {
+            super.setup(size);
+            pipeline = new PostingPipeline(1 << 16, Account.currentJournal(), null);
+        }
+
+        void tearDown() {
+            pipeline.shutdown();
+            super.tearDown();
+        }
+
+        long invoke(ThreadLocalRandom random) {
+            long last = 0;
+            for (int i = 0; i < POSTINGS; i++) {
+                last = pipeline.publishTransfer(accounts[random.nextInt(ACCOUNTS)], accounts[random.nextInt(ACCOUNTS)], 1, "Salary");
+            }
+            pipeline.awaitNotified(last);
+            return POSTINGS;
+        }
+    }
+
+    // The same 1000 transfers through the async facade, all in flight at once: postings are
+    // applied on a small pool and complete together when the journal's group fsync lands
+    static final class AsyncTransfers extends JournaledTransfers {
+        private ExecutorService executor;
+        private String[] accountNumbers;
+
+        AsyncTransfers() { super("AccountService.transferAsync x1000 (journaled)"); }
+
+        void setup(int size) throws Exception {
+            super.setup(size);
+            accountNumbers = new String[ACCOUNTS];
+            for (int i = 0; i < ACCOUNTS; i++) {
+                accountNumbers[i] = accounts[i].getAccountNumber();
+            }
+            executor = Executors.newFixedThreadPool(4);
+            AccountService.useAsyncExecutor(executor);
+        }
+
+        void tearDown() {
+            AccountService.useAsyncExecutor(ForkJoinPool.commonPool());
+            executor.shutdown();
+            super.tearDown();
+        }
+
+        long invoke(ThreadLocalRandom random) {
+            CompletableFuture<?>[] pending = new CompletableFuture<?>[POSTINGS];
+            for (int i = 0; i < POSTINGS; i++) {
+                pending[i] = AccountService.transferAsync(users.get(accountNumbers[random.nextInt(ACCOUNTS)]), users,
+                        accountNumbers[random.nextInt(ACCOUNTS)], 1, "Salary", null);
+            }
+            CompletableFuture.allOf(pending).join();
+            return POSTINGS;
+        }
+    }
+
+    // Rebuilding 1024 users from a journal of `size` events: registrations, then a mix of
+    // deposits, transfers and grocery purchases (each purchase logs two user state events).
+    // One operation is a whole rebuild, so events/s is the score times size. The journal is
+    // written once per size; nothing is appended while measuring.
+    static final class JournalReplay extends Benchmark {
+        private static final int ACCOUNTS = 1024;
+        private final int parallelism;
+        private Path walFile;
+        private int writtenSize = -1;
+
+        JournalReplay(int parallelism) {
+            super("TransactionJournal.open replay (parallelism " + parallelism + ")", false);
+            this.parallelism = parallelism;
+        }
+
+        void setup(int size) throws Exception {
+            if (size == writtenSize) {
+                return;
+            }
+            if (walFile != null) {
+                Files.deleteIfExists(walFile);
+            }
+            walFile = Files.createTempFile("bench-replay", ".wal");
+            walFile.toFile().deleteOnExit();
+            TransactionJournal journal = TransactionJournal.open(walFile, new HashMap<>(), 0);
+            User[] users = new User[ACCOUNTS];
+            for (int i = 0; i < ACCOUNTS; i++) {
+                users[i] = User.restore("Replay " + i, "replay@example.com", "0000000000", "", "REPLAY" + i,
+                        "1 Main St", "Clerk", 30);
+                journal.logRegistration(users[i]);
+            }
+            ThreadLocalRandom random = ThreadLocalRandom.current();
+            LocalDate today = LocalDate.now();
+            long now = System.currentTimeMillis();
+            long seq = 0;
+            for (int i = ACCOUNTS; i < size; i++) {
+                User user = users[random.nextInt(ACCOUNTS)];
+                switch (i % 4) {
+                    case 0:
+                        seq = journal.logDeposit(now, user.getAccountNumber(), 10_000, "Salary", null);
+                        break;
+                    case 1:
+                        seq = journal.logTransfer(now, user.getAccountNumber(),
+                                users[random.nextInt(ACCOUNTS)].getAccountNumber(), 1, "Rent", null);
+                        break;
+                    case 2:
+                        seq = journal.logUserEvent(now, new LedgerEvents.GroceryAdded(user,
+                                new GroceryItem("Apples", "Fruits", 250, 4, today)));
+                        break;
+                    default:
+                        seq = journal.logUserEvent(now, new LedgerEvents.CategoryExpenseRecorded(user,
+                                "Fruits", 1000, today));
+                        break;
+                }
+            }
+            journal.awaitDurable(seq);
+            journal.close();
+            writtenSize = size;
+        }
+
+        long invoke(ThreadLocalRandom random) throws Exception {
+            Map<String, User> users = new HashMap<>();
+            TransactionJournal.open(walFile, users, 0, parallelism).close();
+            return users.size();
+        }
+    }
+
+    // First page (20 deposits) of a random one-day window in a history of `size` postings,
+    // one posting per minute of mixed types
+    static final class HistoryPageQuery extends Benchmark {
+        private static final String[] TYPES = {"DEPOSIT", "WITHDRAW", "TRANSFER_TO", "TRANSFER_FROM"};
+        private static final long MINUTE = 60_000;
+        private Account account;
+        private int size;
+
+        HistoryPageQuery() { super("Account.queryHistory", false); }
+
+        void setup(int size) {
+            this.size = size;
+            account = new Account("BENCH-HISTORY");
+            for (int i = 0; i < size; i++) {
+                account.replay(TYPES[i & 3], 100, "Posting", i * MINUTE);
+            }
+        }
+
+        long invoke(ThreadLocalRandom random) {
+            long from = random.nextInt(size) * MINUTE;
+            HistoryQuery query = new HistoryQuery(from, from + 1440 * MINUTE, 20, "DEPOSIT");
+            return account.queryHistory(query, 0).getTransactions().size();
+        }
+    }
+
+    // Balance at a random instant of a history of `size` postings, one per minute
+    static final class BalanceAtTime extends Benchmark {
+        private static final long MINUTE = 60_000;
+        private Account account;
+        private int size;
+
+        BalanceAtTime() { super("Account.getBalanceAt", false); }
+
+        void setup(int size) {
+            this.size = size;
+            account = new Account("BENCH-BALANCE");
+            for (int i = 0; i < size; i++) {
+                account.replay((i & 1) == 0 ? "DEPOSIT" : "WITHDRAW", (i & 1) == 0 ? 200 : 100, "Posting", i * MINUTE);
+            }
+        }
+
+        long invoke(ThreadLocalRandom random) {
+            return account.getBalanceAt(random.nextInt(size) * MINUTE);
+        }
+    }
+
+    // Two-term prefix search, 50 newest hits, over `size` postings drawn from 1000
+    // descriptions of two words each
+    static final class DescriptionSearch extends Benchmark {
+        private static final String[] WORDS = {"dinner", "payment", "grocery", "shopping", "rent",
+                "salary", "coffee", "uber", "netflix", "gym", "dentist", "insurance", "gift", "book", "train"};
+        private Account account;
+
+        DescriptionSearch() { super("Account.searchTransactions", false); }
+
+        void setup(int size) {
+            account = new Account("BENCH-SEARCH");
+            ThreadLocalRandom random = ThreadLocalRandom.current();
+            String[] descriptions = new String[1000];
+            for (int i = 0; i < descriptions.length; i++) {
+                descriptions[i] = WORDS[random.nextInt(WORDS.length)] + " " + WORDS[random.nextInt(WORDS.length)] + " " + i;
+            }
+            for (int i = 0; i < size; i++) {
+                account.replay("DEPOSIT", 100, descriptions[random.nextInt(descriptions.length)], i);
+            }
+        }
+
+        long invoke(ThreadLocalRandom random) {
+            String query = WORDS[random.nextInt(WORDS.length)].substring(0, 3) + " "
+                    + WORDS[random.nextInt(WORDS.length)].substring(0, 3);
+            return account.searchTransactions(query, 50).size();
+        }
+    }
+
+    static final class BudgetCategoryExpense extends Benchmark {
+        private static final String[] CATEGORIES = new String[64];
+        private Budget budget;
+
+        static {
+            for (int i = 0; i < CATEGORIES.length; i++) {
+                CATEGORIES[i] = "Category" + i;
+            }
+        }
+
+        BudgetCategoryExpense() { super("Budget.addCategoryExpense", false); }
+
+        void setup(int size) {
+            budget = new Budget();
+            budget.setBudgetLimit(Money.of(1e9));
+            for (int i = 0; i < size; i++) {
+                budget.addCategoryExpense(CATEGORIES[i & 63], 100);
+            }
+        }
+
+        long invoke(ThreadLocalRandom random) {
+            budget.addCategoryExpense(CATEGORIES[random.nextInt(CATEGORIES.length)], 100);
+            return 1;
+        }
+    }
+
+    // `size` dated expenses over the last year; the report reads only the aggregate buckets
+    static final class BudgetReport extends Benchmark {
+        private User user;
+
+        BudgetReport() { super("BudgetService.showBudgetReport", false); }
+
+        void setup(int size) {
+            user = donor(0);
+            Budget budget = user.getBudget();
+            budget.setBudgetLimit(Money.of(1e9));
+            LocalDate today = LocalDate.now();
+            for (int i = 0; i < size; i++) {
+                budget.addCategoryExpense(BudgetCategoryExpense.CATEGORIES[i & 63], 100, today.minusDays(i % 365));
+            }
+        }
+
+        long invoke(ThreadLocalRandom random) {
+            BudgetService.showBudgetReport(user);
+            return 1;
+        }
+    }
+
+    static final class UserTotalDonations extends Benchmark {
+        private User user;
+
+        UserTotalDonations() { super("User.getTotalDonations", false); }
+
+        void setup(int size) {
+            user = donor(size);
+        }
+
+        long invoke(ThreadLocalRandom random) {
+            return user.getTotalDonations();
+        }
+    }
+
+    // Donations spread over 100 years, so each report lists about 1% of them
+    static final class DonationTaxReport extends Benchmark {
+        private User user;
+
+        DonationTaxReport() { super("DonationService.generateTaxReport", false); }
+
+        void setup(int size) {
+            user = donor(size);
+        }
+
+        long invoke(ThreadLocalRandom random) {
+            DonationService.generateTaxReport(user, LocalDate.now().getYear() - random.nextInt(100));
+            return 1;
+        }
+    }
+
+    // `size` pending reminders spread over up to 1000 users and the next year; a check only
+    // visits the ones inside the warning window
+    static final class ReminderCheck extends Benchmark {
+        private ReminderWheel wheel;
+        private LocalDate today;
+
+        ReminderCheck() { super("ReminderWheel.advance", false); }
+
+        void setup(int size) {
+            today = LocalDate.now();
+            wheel = new ReminderWheel(today, 2);
+            int userCount = Math.min(size, 1000);
+            User[] owners = new User[userCount];
+            for (int i = 0; i < userCount; i++) {
+                owners[i] = User.restore("Bench " + i, "bench@example.com", "0000000000", "",
+                        "BENCH" + i, "Nowhere", "Tester", 30);
+            }
+            for (int i = 0; i < size; i++) {
+                Reminder reminder = new Reminder("Utility", Money.of(50.0), today.plusDays(i % 365),
+                        "Monthly bill", "Low");
+                owners[i % userCount].getReminders().add(reminder);
+                wheel.schedule(owners[i % userCount], reminder);
+            }
+        }
+
+        long invoke(ThreadLocalRandom random) {
+            return wheel.advance(today).size();
+        }
+    }
+
+    private static User donor(int donations) {
+        User user = User.restore("Bench Donor", "donor@example.com", "0000000000", "",
+                "BENCH-DONOR", "Nowhere", "Tester", 30);
+        LocalDate today = LocalDate.now();
+        for (int i = 0; i < donations; i++) {
+            user.addDonation(new Donation("Charity " + (i & 255), "Health", 2500,
+                    today.minusDays(i % 36500), "Online Payment", (i & 1) == 0, "R" + i, "Bench"));
+        }
+        return user;
+    }
+}
@@ -0,0 +1,114 @@
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.Arrays;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+// Open-loop login load test: logins arrive at a fixed rate whether or not earlier ones have
+// finished, and latency is measured from each login's scheduled arrival, so queueing in the
+// verification pool shows up in the percentiles instead of slowing the generator down.
+// Most logins re-authenticate an account inside its session TTL; a configurable share are
+// cold logins of accounts that must go through the slow hash.
+//
+// Build:  bench/build.sh [out-dir]   (compiles src/, then bench/ against it)
+// Run:    java -cp out LoginLoadTest [logins-per-second] [seconds] [cold-share]
+//         e.g. java -cp out LoginLoadTest 1000 10 0.005
+public class LoginLoadTest {
+    private static final String PASSWORD = "correct horse battery staple";
+    private static final int SESSION_ACCOUNTS = 200;
+    private static final int CLIENT_THREADS = 256;
+
+    public static void main(String[] args) throws Exception {
+        int rate = args.length > 0 ? Integer.parseInt(args[0]) : 1000;
+        int seconds = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+        double coldShare = args.length > 2 ? Double.parseDouble(args[2]) : 0.005;
+        int total = rate * seconds;
+
+        // One real hash shared by every account keeps setup fast; each account still verifies
+        // it independently. Session accounts log in once up front to open their sessions.
+        String stored = SecurityService.hashPassword(PASSWORD);
+        User[] sessionUsers = new User[SESSION_ACCOUNTS];
+        for (int i = 0; i < SESSION_ACCOUNTS; i++) {
+            sessionUsers[i] = account("SESSION" + i, stored);
+        }
+        long setupStart = System.nanoTime();
+        for (User user : sessionUsers) {
+            user.validatePassword(PASSWORD);
+        }
+        System.out.printf("Opened %d sessions in %.1f s (%d PBKDF2 iterations per cold login)%n",
+                SESSION_ACCOUNTS, (System.nanoTime() - setupStart) / 1e9, SecurityService.ITERATIONS);
+
+        long[] cachedLatencies = new long[total];
+        long[] coldLatencies = new long[total];
+        AtomicInteger cachedCount = new AtomicInteger();
+        AtomicInteger coldCount = new AtomicInteger();
+        AtomicInteger rejected = new AtomicInteger();
+        AtomicInteger failed = new AtomicInteger();
+        ExecutorService clients = Executors.newFixedThreadPool(CLIENT_THREADS);
+        PrintStream console = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        long intervalNanos = TimeUnit.SECONDS.toNanos(1) / rate;
+        long start = System.nanoTime();
+        for (int i = 0; i < total; i++) {
+            long arrival = start + i * intervalNanos;
+            long wait = arrival - System.nanoTime();
+            if (wait > 0) {
+                LockSupport.parkNanos(wait);
+            }
+            boolean cold = random.nextDouble() < coldShare;
+            User user = cold ? account("COLD" + i, stored) : sessionUsers[random.nextInt(SESSION_ACCOUNTS)];
+            clients.execute(() -> {
+                try {
+                    if (!user.validatePassword(PASSWORD)) {
+                        failed.incrementAndGet();
+                    }
+                    long latency = System.nanoTime() - arrival;
+                    if (cold) {
+                        coldLatencies[coldCount.getAndIncrement()] = latency;
+                    } else {
+                        cachedLatencies[cachedCount.getAndIncrement()] = latency;
+                    }
+                } catch (InvalidUserException e) {
+                    rejected.incrementAndGet();
+                }
+            });
+        }
+        clients.shutdown();
+        clients.awaitTermination(10, TimeUnit.MINUTES);
+        double elapsed = (System.nanoTime() - start) / 1e9;
+        System.setOut(console);
+
+        System.out.printf("Offered %d logins/s for %d s, completed in %.2f s; %d rejected by the bounded pool, %d failed%n",
+                rate, seconds, elapsed, rejected.get(), failed.get());
+        System.out.printf("%-8s %8s %10s %10s %10s %10s%n", "Login", "Count", "p50 ms", "p99 ms", "p99.9 ms", "max ms");
+        report("session", cachedLatencies, cachedCount.get());
+        report("cold", coldLatencies, coldCount.get());
+        long[] all = Arrays.copyOf(cachedLatencies, cachedCount.get() + coldCount.get());
+        System.arraycopy(coldLatencies, 0, all, cachedCount.get(), coldCount.get());
+        report("all", all, all.length);
+    }
+
+    private static User account(String accountNumber, String stored) {
+        return User.restore("Load " + accountNumber, "load@example.com", "0000000000", stored,
+                accountNumber, "Nowhere", "Tester", 30);
+    }
+
+    private static void report(String name, long[] latencies, int count) {
+        if (count == 0) {
+            System.out.printf("%-8s %8d%n", name, 0);
+            return;
+        }
+        long[] sorted = Arrays.copyOf(latencies, count);
+        Arrays.sort(sorted);
+        System.out.printf("%-8s %8d %10.3f %10.3f %10.3f %10.3f%n", name, count,
+                percentile(sorted, 0.50), percentile(sorted, 0.99), percentile(sorted, 0.999),
+                sorted[count - 1] / 1e6);
+    }
+
+    private static double percentile(long[] sorted, double p) {
+        return sorted[Math.min(sorted.length - 1, (int) Math.ceil(p * sorted.length) - 1)] / 1e6;
+    }
+}
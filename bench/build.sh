@@ -0,0 +1,10 @@
+#!/bin/sh
+# Builds the application, then the benchmarks against it, into the given directory (default out).
+# The benchmarks use the package-private classes declared in src/Project1.java, and javac's
+# auxiliaryclass lint flags every such use from another file. bench/ is therefore compiled on
+# its own with just that check off; everything else stays at -Xlint:all.
+set -e
+cd "$(dirname "$0")/.."
+OUT=${1:-out}
+javac -encoding UTF-8 -Xlint:all -d "$OUT" src/*.java
+javac -encoding UTF-8 -Xlint:all,-auxiliaryclass -cp "$OUT" -d "$OUT" bench/*.java
@@ -1,9 +1,50 @@
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.UncheckedIOException;
+import java.lang.invoke.VarHandle;
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
 import java.util.*;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+import java.util.function.IntConsumer;
+import java.util.function.Supplier;
+import java.util.zip.CRC32;
+import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.PBEKeySpec;
+import java.time.Instant;
 import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.YearMonth;
+import java.time.ZoneId;
 import java.time.format.DateTimeFormatter;
 import java.time.format.DateTimeParseException;
-import java.text.DecimalFormat;
 
 // Custom Exceptions
 class InsufficientBalanceException extends Exception {
@@ -31,7 +72,7 @@ class User {
     private String name;
     private String email;
     private String phone;
-    private String password; // Encrypted
+    private volatile String password; // Salted PBKDF2 hash (older accounts: Base64 until next login)
     private String accountNumber;
     private String address;
     private String occupation;
@@ -45,10 +86,15 @@ class User {
 
     public User(String name, String email, String phone, String password, String accountNumber,
                 String address, String occupation, int age) {
+        this(name, email, phone, accountNumber, address, occupation, age, SecurityService.hashPassword(password));
+    }
+
+    private User(String name, String email, String phone, String accountNumber,
+                 String address, String occupation, int age, String encryptedPassword) {
         this.name = name;
         this.email = email;
         this.phone = phone;
-        this.password = SecurityService.encrypt(password);
+        this.password = encryptedPassword;
         this.accountNumber = accountNumber;
         this.address = address;
         this.occupation = occupation;
@@ -78,410 +124,5735 @@ class User {
     public DonationGoal getDonationGoal() { return donationGoal; }
     public void setDonationGoal(DonationGoal goal) { this.donationGoal = goal; }
 
-    public void addReminder(Reminder reminder) {
-        reminders.add(reminder);
+    public CompletableFuture<Void> addReminder(Reminder reminder) {
+        CompletableFuture<Void> durable = LedgerEvents.publish(new LedgerEvents.ReminderAdded(this, reminder));
+        ReminderService.track(this, reminder);
+        return durable;
     }
 
-    public void addGroceryItem(GroceryItem item) {
-        groceryItems.add(item);
-        budget.addExpense(item.getPrice()); // also count in budget
+    // Changes are published as events and made by applying them, see LedgerEvents.apply;
+    // the returned future completes once the change is journaled
+    public CompletableFuture<Void> addGroceryItem(GroceryItem item) {
+        return LedgerEvents.publish(new LedgerEvents.GroceryAdded(this, item));
     }
 
-    public void removeGroceryItem(int index) {
+    // index is the item's position as listed; the event names the item by id
+    public CompletableFuture<Void> removeGroceryItem(int index) {
         if (index >= 0 && index < groceryItems.size()) {
-            GroceryItem item = groceryItems.get(index);
-            budget.addExpense(-item.getPrice()); // subtract from budget
-            groceryItems.remove(index);
+            return LedgerEvents.publish(new LedgerEvents.GroceryRemoved(this, groceryItems.get(index).getId()));
         }
+        return CompletableFuture.completedFuture(null);
     }
 
-    public boolean validatePassword(String password) {
-        return this.password.equals(SecurityService.encrypt(password));
+    // Rebuilds a user from durable state; the password is already hashed
+    static User restore(String name, String email, String phone, String encryptedPassword, String accountNumber,
+                        String address, String occupation, int age) {
+        return new User(name, email, phone, accountNumber, address, occupation, age, encryptedPassword);
     }
 
-    public void addDonation(Donation donation) {
-        donations.add(donation);
-        budget.addExpense(donation.getAmount()); // donations also part of expenses
-        if (donationGoal != null) {
-            donationGoal.addDonation(donation.getAmount());
+    // Throws when the verification pool is saturated rather than queueing without bound.
+    // Legacy Base64 entries are upgraded in the background on the same pool; the new hash is
+    // journaled like any other change, and a busy pool leaves the upgrade to a later login.
+    public boolean validatePassword(String password) throws InvalidUserException {
+        String stored = this.password;
+        boolean valid = SecurityService.verifyPassword(accountNumber, password, stored);
+        if (valid && SecurityService.needsRehash(stored)) {
+            SecurityService.rehashLater(password, hash -> {
+                if (this.password.equals(stored)) {
+                    LedgerEvents.publish(new LedgerEvents.PasswordRehashed(this, hash));
+                }
+            });
         }
+        return valid;
+    }
+
+    void setPasswordHash(String hash) {
+        this.password = hash;
+    }
+
+    public CompletableFuture<Void> addDonation(Donation donation) {
+        return LedgerEvents.publish(new LedgerEvents.DonationRecorded(this, donation));
     }
 
-    public double getTotalDonations() {
-        return donations.stream().mapToDouble(Donation::getAmount).sum();
+    public long getTotalDonations() {
+        long total = 0;
+        for (Donation donation : donations) {
+            total = Money.add(total, donation.getAmount());
+        }
+        return total;
     }
 
-    public double getTaxDeductibleDonations() {
-        return donations.stream()
-                .filter(Donation::isTaxDeductible)
-                .mapToDouble(Donation::getAmount)
-                .sum();
+    public long getTaxDeductibleDonations() {
+        long total = 0;
+        for (Donation donation : donations) {
+            if (donation.isTaxDeductible()) {
+                total = Money.add(total, donation.getAmount());
+            }
+        }
+        return total;
     }
 }
 
 class Account {
-    private String accountNumber;
-    private double balance;
-    private List<Transaction> transactions;
+    // Status codes of tryWithdraw and tryTransfer
+    static final byte APPLIED = 0;
+    static final byte INSUFFICIENT_BALANCE = 1;
+    static final byte INVALID_AMOUNT = 2;
+
+    private static volatile TransactionJournal journal; // null until the journal is opened
+
+    private static final int OPTIMISTIC_ATTEMPTS = 64; // before readBalance falls back to the lock
+
+    private final String accountNumber;
+    private final int stripe; // lock stripe guarding balance and transactions
+    private long balance; // minor units
+    private final TransactionStore transactions;
+    private volatile long version; // odd while a writer is changing balance or history
 
     public Account(String accountNumber) {
         this.accountNumber = accountNumber;
-        this.balance = 0.0;
-        this.transactions = new ArrayList<>();
+        this.stripe = LedgerLocks.stripeOf(accountNumber);
+        this.balance = 0;
+        this.transactions = new TransactionStore();
+    }
+
+    static void attachJournal(TransactionJournal transactionJournal) {
+        journal = transactionJournal;
     }
 
     public String getAccountNumber() { return accountNumber; }
-    public double getBalance() { return balance; }
-    public List<Transaction> getTransactions() { return transactions; }
 
-    public void deposit(double amount, String description) {
-        balance += amount;
-        transactions.add(new Transaction("DEPOSIT", amount, description));
+    public long getBalance() {
+        for (int attempt = 0; attempt < OPTIMISTIC_ATTEMPTS; attempt++) {
+            long before = version;
+            if ((before & 1) == 0) {
+                long value = balance;
+                VarHandle.loadLoadFence();
+                if (version == before) {
+                    return value;
+                }
+            }
+            Thread.onSpinWait();
+        }
+        LedgerLocks.lock(stripe);
+        try {
+            return balance;
+        } finally {
+            LedgerLocks.unlock(stripe);
+        }
     }
 
-    public void withdraw(double amount, String description) throws InsufficientBalanceException {
-        if (amount > balance) {
-            throw new InsufficientBalanceException("Insufficient balance. Current balance: " + balance);
+    // Balance and transaction count as of one instant, read optimistically: take the version,
+    // read both fields, and accept them only if the version was even and has not moved.
+    // Readers never block writers; under a write storm they retry, then take the stripe.
+    public AccountBalance readBalance() {
+        for (int attempt = 0; attempt < OPTIMISTIC_ATTEMPTS; attempt++) {
+            long before = version;
+            if ((before & 1) == 0) {
+                long value = balance;
+                int count = transactions.size();
+                VarHandle.loadLoadFence(); // field reads complete before the version is re-read
+                if (version == before) {
+                    return new AccountBalance(value, count);
+                }
+            }
+            Thread.onSpinWait();
+        }
+        LedgerLocks.lock(stripe);
+        try {
+            return new AccountBalance(balance, transactions.size());
+        } finally {
+            LedgerLocks.unlock(stripe);
         }
-        balance -= amount;
-        transactions.add(new Transaction("WITHDRAW", amount, description));
     }
 
-    public void transfer(Account recipient, double amount, String description)
-            throws InsufficientBalanceException {
-        if (amount > balance) {
-            throw new InsufficientBalanceException("Insufficient balance. Current balance: " + balance);
+    // Writers bracket every change to balance or history with these, holding the stripe
+    private void beginWrite() {
+        version++;
+        VarHandle.storeStoreFence(); // the odd version is visible before any field changes
+    }
+
+    private void endWrite() {
+        version++;
+    }
+
+    // A transfer to the same account must bump the version once, not twice
+    private void beginWrite(Account recipient) {
+        beginWrite();
+        if (recipient != this) {
+            recipient.beginWrite();
         }
-        balance -= amount;
-        recipient.balance += amount;
-        transactions.add(new Transaction("TRANSFER_TO", amount, description + " to " + recipient.getAccountNumber()));
-        recipient.transactions.add(new Transaction("TRANSFER_FROM", amount, description + " from " + accountNumber));
     }
-}
 
-class Transaction {
-    private String type;
-    private double amount;
-    private String description;
-    private Date timestamp;
+    private void endWrite(Account recipient) {
+        if (recipient != this) {
+            recipient.endWrite();
+        }
+        endWrite();
+    }
 
-    public Transaction(String type, double amount, String description) {
-        this.type = type;
-        this.amount = amount;
-        this.description = description;
-        this.timestamp = new Date();
+    // Balance as of the given time (every posting at or before it), from the store's
+    // running-balance checkpoints rather than a replay of the whole history
+    public long getBalanceAt(long timestampMillis) {
+        LedgerLocks.lock(stripe);
+        try {
+            return transactions.balanceAt(timestampMillis);
+        } finally {
+            LedgerLocks.unlock(stripe);
+        }
     }
 
-    public String getType() { return type; }
-    public double getAmount() { return amount; }
-    public String getDescription() { return description; }
-    public Date getTimestamp() { return timestamp; }
+    // Read-only view of the history as of this call; entries are materialized on access
+    // from the columnar store, so callers can iterate while other sessions keep posting.
+    public List<Transaction> getTransactions() {
+        int count;
+        LedgerLocks.lock(stripe);
+        try {
+            count = transactions.size();
+        } finally {
+            LedgerLocks.unlock(stripe);
+        }
+        return new AbstractList<Transaction>() {
+            @Override
+            public Transaction get(int index) {
+                Objects.checkIndex(index, count);
+                LedgerLocks.lock(stripe);
+                try {
+                    return transactions.get(index);
+                } finally {
+                    LedgerLocks.unlock(stripe);
+                }
+            }
 
-    @Override
-    public String toString() {
-        return String.format("[%s] %s: $%.2f - %s", timestamp, type, amount, description);
+            @Override
+            public int size() {
+                return count;
+            }
+        };
     }
-}
 
-class Reminder {
-    private String billType;
-    private double amount;
-    private LocalDate dueDate;
-    private String description;
-    private String priority;
-    private boolean isPaid;
+    // Most recent postings (up to limit) whose description matches every term of the query
+    // as a word prefix, e.g. "din pay" finds "Dinner payment to ACC002"
+    public List<Transaction> searchTransactions(String query, int limit) {
+        Set<String> terms = DescriptionDictionary.tokenize(query);
+        List<Transaction> matches = new ArrayList<>();
+        if (terms.isEmpty()) {
+            return matches;
+        }
+        BitSet ids = DescriptionDictionary.matching(query);
+        int[] positions = new int[limit];
+        LedgerLocks.lock(stripe);
+        try {
+            int count = transactions.search(ids, terms, positions);
+            for (int i = 0; i < count; i++) {
+                matches.add(transactions.get(positions[i]));
+            }
+        } finally {
+            LedgerLocks.unlock(stripe);
+        }
+        return matches;
+    }
 
-    public Reminder(String billType, double amount, LocalDate dueDate, String description, String priority) {
-        this.billType = billType;
-        this.amount = amount;
-        this.dueDate = dueDate;
-        this.description = description;
-        this.priority = priority;
-        this.isPaid = false;
+    // One page of history matching the query, oldest first. Pass 0 as the cursor for the
+    // first page and the returned page's next cursor afterwards; positions in the store
+    // never move, so a cursor stays valid while new postings arrive.
+    public HistoryPage queryHistory(HistoryQuery query, long cursor) {
+        int[] positions = new int[query.getPageSize() + 1]; // one extra to know if more follow
+        List<Transaction> page = new ArrayList<>(query.getPageSize());
+        long next = HistoryPage.END;
+        LedgerLocks.lock(stripe);
+        try {
+            int start = Math.max((int) Math.min(cursor, Integer.MAX_VALUE), transactions.lowerBound(query.getFromMillis()));
+            int end = transactions.lowerBound(query.getToMillis());
+            int count = transactions.select(start, end, query.getTypeMask(), positions);
+            for (int i = 0; i < Math.min(count, query.getPageSize()); i++) {
+                page.add(transactions.get(positions[i]));
+            }
+            if (count > query.getPageSize()) {
+                next = positions[query.getPageSize()];
+            }
+        } finally {
+            LedgerLocks.unlock(stripe);
+        }
+        return new HistoryPage(page, next);
     }
 
-    public String getBillType() { return billType; }
-    public double getAmount() { return amount; }
-    public LocalDate getDueDate() { return dueDate; }
-    public String getDescription() { return description; }
-    public String getPriority() { return priority; }
-    public boolean isPaid() { return isPaid; }
-    public void markAsPaid() { this.isPaid = true; }
+    // Postings are journaled while the stripe is held, so the log order matches the
+    // apply order per account; waiting for the fsync happens after the lock is released.
+    // With an idempotency key, a retried request returns the first call's result instead
+    // of posting again; keys are scoped to the (paying) account.
+    public PostingResult deposit(long amount, String description) {
+        return applyDeposit(amount, description, null, true);
+    }
 
-    public boolean isDue() {
-        return LocalDate.now().isAfter(dueDate) || LocalDate.now().isEqual(dueDate);
+    public PostingResult deposit(long amount, String description, String idempotencyKey) {
+        if (idempotencyKey == null) {
+            return applyDeposit(amount, description, null, true);
+        }
+        return IdempotencyCache.POSTINGS.execute(accountNumber, idempotencyKey,
+                IdempotencyCache.fingerprint(Posting.DEPOSIT, amount, null),
+                () -> applyDeposit(amount, description, idempotencyKey, true));
     }
 
-    public boolean isDueInDays(int days) {
-        return LocalDate.now().plusDays(days).isAfter(dueDate) || LocalDate.now().plusDays(days).isEqual(dueDate);
+    public PostingResult withdraw(long amount, String description) throws InsufficientBalanceException {
+        return applyWithdraw(amount, description, null, true);
     }
 
-    @Override
-    public String toString() {
-        return String.format("%s: $%.2f due on %s [%s] - %s (%s)",
-                billType, amount, dueDate.toString(), isPaid ? "PAID" : "PENDING", description, priority);
+    public PostingResult withdraw(long amount, String description, String idempotencyKey)
+            throws InsufficientBalanceException {
+        if (idempotencyKey == null) {
+            return applyWithdraw(amount, description, null, true);
+        }
+        return IdempotencyCache.POSTINGS.execute(accountNumber, idempotencyKey,
+                IdempotencyCache.fingerprint(Posting.WITHDRAW, amount, null),
+                () -> applyWithdraw(amount, description, idempotencyKey, true));
     }
-}
 
-class GroceryItem {
-    private String name;
-    private String category;
-    private double price;
-    private int quantity;
-    private LocalDate purchaseDate;
+    public PostingResult transfer(Account recipient, long amount, String description)
+            throws InsufficientBalanceException {
+        return applyTransfer(recipient, amount, description, null, true);
+    }
 
-    public GroceryItem(String name, String category, double price, int quantity, LocalDate purchaseDate) {
-        this.name = name;
-        this.category = category;
-        this.price = price;
-        this.quantity = quantity;
-        this.purchaseDate = purchaseDate;
+    public PostingResult transfer(Account recipient, long amount, String description, String idempotencyKey)
+            throws InsufficientBalanceException {
+        if (idempotencyKey == null) {
+            return applyTransfer(recipient, amount, description, null, true);
+        }
+        return IdempotencyCache.POSTINGS.execute(accountNumber, idempotencyKey,
+                IdempotencyCache.fingerprint(Posting.TRANSFER, amount, recipient.accountNumber),
+                () -> applyTransfer(recipient, amount, description, idempotencyKey, true));
     }
 
-    public String getName() { return name; }
-    public String getCategory() { return category; }
-    public double getPrice() { return price; }
-    public int getQuantity() { return quantity; }
-    public LocalDate getPurchaseDate() { return purchaseDate; }
+    // Non-throwing forms for bulk callers: a rejection returns INVALID_AMOUNT or
+    // INSUFFICIENT_BALANCE without building an exception or its message. An applied posting
+    // is durable on return, as with withdraw and transfer. Like those, these post to the
+    // account directly; AccountService.tryWithdraw and tryTransfer go through the active
+    // posting mode and publish TransactionPosted.
+    public byte tryWithdraw(long amount, String description) {
+        return tryPost(Posting.WITHDRAW, null, amount, description);
+    }
 
-    @Override
-    public String toString() {
-        return String.format("%s (%s) - $%.2f x %d = $%.2f on %s",
-                name, category, price, quantity, price * quantity, purchaseDate.toString());
+    public byte tryTransfer(Account recipient, long amount, String description) {
+        return tryPost(Posting.TRANSFER, recipient, amount, description);
     }
-}
 
-class Budget {
-    private double monthlySalary;
-    private double budgetLimit;
-    private double currentExpenses;
-    private Map<String, Double> categoryExpenses;
-    private Map<Integer, Double> weeklyExpenses; // store actual weekly spending
+    private byte tryPost(byte type, Account recipient, long amount, String description) {
+        if (amount <= 0) {
+            return INVALID_AMOUNT;
+        }
+        return tryApply(type, recipient, amount, description, true) == null ? INSUFFICIENT_BALANCE : APPLIED;
+    }
 
-    public Budget() {
-        this.monthlySalary = 0.0;
-        this.budgetLimit = 0.0;
-        this.currentExpenses = 0.0;
-        this.categoryExpenses = new HashMap<>();
-        this.weeklyExpenses = new HashMap<>();
-        for (int i = 1; i <= 4; i++) {
-            weeklyExpenses.put(i, 0.0); // initialize all weeks with 0 spent
+    // Core of the try forms: the applied withdrawal or transfer, or null, changing nothing,
+    // if funds are short. Without sync it returns before the posting is durable.
+    PostingResult tryApply(byte type, Account recipient, long amount, String description, boolean sync) {
+        TransactionJournal log = journal;
+        long seq = 0;
+        PostingResult result;
+        int other = recipient == null ? stripe : recipient.stripe;
+        LedgerLocks.lockPair(stripe, other);
+        try {
+            if (amount > balance) {
+                return null;
+            }
+            long now = System.currentTimeMillis();
+            if (log != null) {
+                seq = recipient == null
+                        ? log.logWithdraw(now, accountNumber, amount, description, null)
+                        : log.logTransfer(now, accountNumber, recipient.accountNumber, amount, description, null);
+            }
+            applyHeld(type, recipient, amount, description, now);
+            result = new PostingResult(recipient == null ? "WITHDRAW" : "TRANSFER_TO", amount, balance, now, seq);
+        } finally {
+            LedgerLocks.unlockPair(stripe, other);
         }
+        if (log != null && sync) {
+            log.awaitDurable(seq);
+        }
+        return result;
     }
 
-    public double getMonthlySalary() { return monthlySalary; }
-    public void setMonthlySalary(double monthlySalary) { this.monthlySalary = monthlySalary; }
+    private PostingResult applyDeposit(long amount, String description, String idempotencyKey, boolean sync) {
+        TransactionJournal log = journal;
+        long seq = 0;
+        PostingResult result;
+        LedgerLocks.lock(stripe);
+        try {
+            long now = System.currentTimeMillis();
+            if (log != null) {
+                seq = log.logDeposit(now, accountNumber, amount, description, idempotencyKey);
+            }
+            beginWrite();
+            balance = Money.add(balance, amount);
+            transactions.append(TransactionStore.DEPOSIT, amount, description, now);
+            endWrite();
+            result = new PostingResult("DEPOSIT", amount, balance, now, seq);
+        } finally {
+            LedgerLocks.unlock(stripe);
+        }
+        if (log != null && sync) {
+            log.awaitDurable(seq);
+        }
+        return result;
+    }
 
-    public double getBudgetLimit() { return budgetLimit; }
-    public void setBudgetLimit(double budgetLimit) { this.budgetLimit = budgetLimit; }
+    private PostingResult applyWithdraw(long amount, String description, String idempotencyKey, boolean sync)
+            throws InsufficientBalanceException {
+        TransactionJournal log = journal;
+        long seq = 0;
+        PostingResult result;
+        LedgerLocks.lock(stripe);
+        try {
+            if (amount > balance) {
+                throw new InsufficientBalanceException("Insufficient balance. Current balance: " + Money.format(balance));
+            }
+            long now = System.currentTimeMillis();
+            if (log != null) {
+                seq = log.logWithdraw(now, accountNumber, amount, description, idempotencyKey);
+            }
+            beginWrite();
+            balance = Money.subtract(balance, amount);
+            transactions.append(TransactionStore.WITHDRAW, amount, description, now);
+            endWrite();
+            result = new PostingResult("WITHDRAW", amount, balance, now, seq);
+        } finally {
+            LedgerLocks.unlock(stripe);
+        }
+        if (log != null && sync) {
+            log.awaitDurable(seq);
+        }
+        return result;
+    }
 
-    public double getCurrentExpenses() { return currentExpenses; }
+    private PostingResult applyTransfer(Account recipient, long amount, String description, String idempotencyKey,
+                                        boolean sync) throws InsufficientBalanceException {
+        TransactionJournal log = journal;
+        long seq = 0;
+        PostingResult result;
+        LedgerLocks.lockPair(stripe, recipient.stripe);
+        try {
+            if (amount > balance) {
+                throw new InsufficientBalanceException("Insufficient balance. Current balance: " + Money.format(balance));
+            }
+            long now = System.currentTimeMillis();
+            if (log != null) {
+                seq = log.logTransfer(now, accountNumber, recipient.accountNumber, amount, description, idempotencyKey);
+            }
+            beginWrite(recipient);
+            balance = Money.subtract(balance, amount);
+            recipient.balance = Money.add(recipient.balance, amount);
+            transactions.append(TransactionStore.TRANSFER_TO, amount, description, now, recipient.accountNumber);
+            recipient.transactions.append(TransactionStore.TRANSFER_FROM, amount, description, now, accountNumber);
+            endWrite(recipient);
+            result = new PostingResult("TRANSFER_TO", amount, balance, now, seq);
+        } finally {
+            LedgerLocks.unlockPair(stripe, recipient.stripe);
+        }
+        if (log != null && sync) {
+            log.awaitDurable(seq);
+        }
+        return result;
+    }
 
-    public void addExpense(double amount) {
-        this.currentExpenses += amount;
+    // Variants for ShardedUserRegistry, which waits for the journal once per batch of
+    // postings: these apply and journal the posting but return before it is durable, with
+    // the result carrying the sequence number to wait for
+    PostingResult depositUnsynced(long amount, String description, String idempotencyKey) {
+        return applyDeposit(amount, description, idempotencyKey, false);
     }
 
-    public void addCategoryExpense(String category, double amount) {
-        categoryExpenses.put(category, categoryExpenses.getOrDefault(category, 0.0) + amount);
-        addExpense(amount);
+    PostingResult withdrawUnsynced(long amount, String description, String idempotencyKey)
+            throws InsufficientBalanceException {
+        return applyWithdraw(amount, description, idempotencyKey, false);
     }
 
-    public Map<String, Double> getCategoryExpenses() {
-        return categoryExpenses;
+    PostingResult transferUnsynced(Account recipient, long amount, String description, String idempotencyKey)
+            throws InsufficientBalanceException {
+        return applyTransfer(recipient, amount, description, idempotencyKey, false);
     }
 
-    public void resetExpenses() {
-        this.currentExpenses = 0.0;
-        this.categoryExpenses.clear();
-        for (int i = 1; i <= 4; i++) {
-            weeklyExpenses.put(i, 0.0);
+    // First leg of a transfer whose accounts live on different shards: validates and debits
+    // this account and journals the transfer as in flight
+    PostingResult debitTransferLeg(String toAccount, long amount, String description, long transferId,
+                                   String idempotencyKey) throws InsufficientBalanceException {
+        PostingResult debit = tryDebitTransferLeg(toAccount, amount, description, transferId, idempotencyKey);
+        if (debit == null) {
+            throw new InsufficientBalanceException("Insufficient balance. Current balance: " + Money.format(getBalance()));
         }
+        return debit;
     }
 
-    public double getRemainingBudget() {
-        return budgetLimit - currentExpenses;
+    // Same, returning null instead of throwing when funds are short
+    PostingResult tryDebitTransferLeg(String toAccount, long amount, String description, long transferId,
+                                      String idempotencyKey) {
+        TransactionJournal log = journal;
+        LedgerLocks.lock(stripe);
+        try {
+            if (amount > balance) {
+                return null;
+            }
+            long now = System.currentTimeMillis();
+            long seq = 0;
+            if (log != null) {
+                seq = log.logTransferLeg(true, now, accountNumber, toAccount, amount, description, transferId, idempotencyKey);
+            }
+            beginWrite();
+            balance = Money.subtract(balance, amount);
+            transactions.append(TransactionStore.TRANSFER_TO, amount, description, now, toAccount);
+            endWrite();
+            return new PostingResult("TRANSFER_TO", amount, balance, now, seq);
+        } finally {
+            LedgerLocks.unlock(stripe);
+        }
     }
 
-    public boolean isBudgetExceeded() {
-        return currentExpenses > budgetLimit;
+    // Second leg: credits this account and journals the transfer as complete; cannot fail
+    PostingResult creditTransferLeg(String fromAccount, long amount, String description, long transferId) {
+        TransactionJournal log = journal;
+        LedgerLocks.lock(stripe);
+        try {
+            long now = System.currentTimeMillis();
+            long seq = 0;
+            if (log != null) {
+                seq = log.logTransferLeg(false, now, accountNumber, fromAccount, amount, description, transferId, null);
+            }
+            beginWrite();
+            balance = Money.add(balance, amount);
+            transactions.append(TransactionStore.TRANSFER_FROM, amount, description, now, fromAccount);
+            endWrite();
+            return new PostingResult("TRANSFER_FROM", amount, balance, now, seq);
+        } finally {
+            LedgerLocks.unlock(stripe);
+        }
     }
 
-    public boolean isBudgetNearExceed() {
-        return currentExpenses >= budgetLimit * 0.8;
+    static TransactionJournal currentJournal() {
+        return journal;
     }
 
-    // Weekly allocation should be based on Budget Limit (not salary)
-    public Map<Integer, Double> getWeeklyBudgetAllocation() {
-        Map<Integer, Double> weeklyBudget = new HashMap<>();
-        double weeklyLimit = budgetLimit / 4; // split budget equally into 4 weeks
-        for (int i = 1; i <= 4; i++) {
-            weeklyBudget.put(i, weeklyLimit);
+    // PostingPipeline's ledger stage: the caller already holds the stripes involved and
+    // journals the posting afterwards. Returns false, changing nothing, if funds are short.
+    // A credit that would overflow throws ArithmeticException, also before anything changes.
+    boolean applyHeld(byte type, Account recipient, long amount, String description, long now) {
+        if (type == Posting.DEPOSIT) {
+            long after = Money.add(balance, amount);
+            beginWrite();
+            balance = after;
+            transactions.append(TransactionStore.DEPOSIT, amount, description, now);
+            endWrite();
+            return true;
         }
-        return weeklyBudget;
-    }
-
-    // Record actual money spent in a specific week
-    public void addWeeklyExpense(int week, double amount) {
-        if (week >= 1 && week <= 4) {
-            weeklyExpenses.put(week, weeklyExpenses.get(week) + amount);
-            addExpense(amount);
+        if (amount > balance) {
+            return false;
+        }
+        if (type == Posting.WITHDRAW) {
+            beginWrite();
+            balance = Money.subtract(balance, amount);
+            transactions.append(TransactionStore.WITHDRAW, amount, description, now);
+            endWrite();
         } else {
-            System.out.println("❌ Invalid week! Please enter between 1 and 4.");
+            if (recipient != this) {
+                Money.add(recipient.balance, amount); // checked here, while the versions are still even
+            }
+            beginWrite(recipient);
+            balance = Money.subtract(balance, amount);
+            recipient.balance = Money.add(recipient.balance, amount);
+            transactions.append(TransactionStore.TRANSFER_TO, amount, description, now, recipient.accountNumber);
+            recipient.transactions.append(TransactionStore.TRANSFER_FROM, amount, description, now, accountNumber);
+            endWrite(recipient);
         }
+        return true;
     }
 
-    public Map<Integer, Double> getWeeklyExpenses() {
-        return weeklyExpenses;
+    int getStripe() {
+        return stripe;
     }
-}
 
-class Donation {
-    private String charityName;
-    private String charityType;
-    private double amount;
-    private LocalDate donationDate;
-    private String paymentMethod;
-    private boolean taxDeductible;
-    private String receiptId;
-    private String description;
+    // Feeds history entries [from, to) to the visitor under the stripe. The history is
+    // append-only, so a prefix read in several holds is the same as one read in a single hold.
+    void visitHistory(int from, int to, TransactionStore.Visitor visitor) {
+        LedgerLocks.lock(stripe);
+        try {
+            transactions.visit(from, Math.min(to, transactions.size()), visitor);
+        } finally {
+            LedgerLocks.unlock(stripe);
+        }
+    }
 
-    public Donation(String charityName, String charityType, double amount, LocalDate donationDate,
-                    String paymentMethod, boolean taxDeductible, String receiptId, String description) {
-        this.charityName = charityName;
-        this.charityType = charityType;
-        this.amount = amount;
-        this.donationDate = donationDate;
-        this.paymentMethod = paymentMethod;
-        this.taxDeductible = taxDeductible;
-        this.receiptId = receiptId;
-        this.description = description;
+    // Applies every posting or none. The accounts involved are sorted by stripe, so each
+    // stripe is locked once, in ascending order; the batch is validated in order against
+    // running balances and journaled as one record. Its legs are then grouped by account,
+    // keeping batch order within each, so every store is grown once and appended in one run.
+    static void postBatch(List<Posting> postings) throws InsufficientBalanceException {
+        Posting[] batch = postings.toArray(new Posting[0]);
+        IdentityHashMap<Account, long[]> touched = new IdentityHashMap<>(); // balance, legs, slot
+        for (Posting posting : batch) {
+            touch(touched, posting.getAccount());
+            if (posting.getRecipient() != null) {
+                touch(touched, posting.getRecipient());
+            }
+        }
+        Account[] accounts = touched.keySet().toArray(new Account[0]);
+        Arrays.sort(accounts, Comparator.comparingInt(Account::getStripe));
+        int[] legStart = new int[accounts.length + 1];
+        int stripeCount = 0;
+        for (int slot = 0; slot < accounts.length; slot++) {
+            long[] state = touched.get(accounts[slot]);
+            state[2] = slot;
+            legStart[slot + 1] = legStart[slot] + (int) state[1];
+            if (slot == 0 || accounts[slot].stripe != accounts[slot - 1].stripe) {
+                stripeCount++;
+            }
+        }
+        int[] stripes = new int[stripeCount];
+        for (int slot = 0, i = 0; slot < accounts.length; slot++) {
+            if (slot == 0 || accounts[slot].stripe != accounts[slot - 1].stripe) {
+                stripes[i++] = accounts[slot].stripe;
+            }
+        }
+        // Leg 2p is posting p on its account, 2p + 1 its credit to the recipient
+        int[] legs = new int[legStart[accounts.length]];
+        int[] next = Arrays.copyOf(legStart, accounts.length);
+        for (int p = 0; p < batch.length; p++) {
+            legs[next[(int) touched.get(batch[p].getAccount())[2]]++] = 2 * p;
+            if (batch[p].getRecipient() != null) {
+                legs[next[(int) touched.get(batch[p].getRecipient())[2]]++] = 2 * p + 1;
+            }
+        }
+
+        TransactionJournal log = journal;
+        long seq = 0;
+        LedgerLocks.lockAll(stripes);
+        try {
+            for (Account account : accounts) {
+                touched.get(account)[0] = account.balance;
+            }
+            for (Posting posting : batch) {
+                long[] account = touched.get(posting.getAccount());
+                long amount = posting.getAmount();
+                if (posting.getType() == Posting.DEPOSIT) {
+                    account[0] = Money.add(account[0], amount);
+                    continue;
+                }
+                if (amount > account[0]) {
+                    throw new InsufficientBalanceException("Insufficient balance in " + posting.getAccount().accountNumber
+                            + " for batch posting. Balance at that point: " + Money.format(account[0]));
+                }
+                account[0] = Money.subtract(account[0], amount);
+                if (posting.getType() == Posting.TRANSFER) {
+                    long[] recipient = touched.get(posting.getRecipient());
+                    recipient[0] = Money.add(recipient[0], amount);
+                }
+            }
+
+            long now = System.currentTimeMillis();
+            if (log != null) {
+                seq = log.logBatch(now, postings);
+            }
+            for (Account account : accounts) {
+                account.beginWrite();
+            }
+            for (int slot = 0; slot < accounts.length; slot++) {
+                Account account = accounts[slot];
+                TransactionStore store = account.transactions;
+                account.balance = touched.get(account)[0];
+                store.ensureCapacity(legStart[slot + 1] - legStart[slot]);
+                for (int i = legStart[slot]; i < legStart[slot + 1]; i++) {
+                    Posting posting = batch[legs[i] >> 1];
+                    if ((legs[i] & 1) != 0) {
+                        store.append(TransactionStore.TRANSFER_FROM, posting.getAmount(), posting.getDescription(), now,
+                                posting.getAccount().accountNumber);
+                    } else if (posting.getType() == Posting.DEPOSIT) {
+                        store.append(TransactionStore.DEPOSIT, posting.getAmount(), posting.getDescription(), now);
+                    } else if (posting.getType() == Posting.WITHDRAW) {
+                        store.append(TransactionStore.WITHDRAW, posting.getAmount(), posting.getDescription(), now);
+                    } else {
+                        store.append(TransactionStore.TRANSFER_TO, posting.getAmount(), posting.getDescription(), now,
+                                posting.getRecipient().accountNumber);
+                    }
+                }
+            }
+            for (Account account : accounts) {
+                account.endWrite();
+            }
+        } finally {
+            LedgerLocks.unlockAll(stripes);
+        }
+        if (log != null) {
+            log.awaitDurable(seq);
+        }
     }
 
-    // Getters
-    public String getCharityName() { return charityName; }
-    public String getCharityType() { return charityType; }
-    public double getAmount() { return amount; }
-    public LocalDate getDonationDate() { return donationDate; }
-    public String getPaymentMethod() { return paymentMethod; }
-    public boolean isTaxDeductible() { return taxDeductible; }
-    public String getReceiptId() { return receiptId; }
-    public String getDescription() { return description; }
+    private static void touch(IdentityHashMap<Account, long[]> touched, Account account) {
+        long[] state = touched.get(account);
+        if (state == null) {
+            state = new long[3];
+            touched.put(account, state);
+        }
+        state[1]++;
+    }
 
-    @Override
-    public String toString() {
-        return String.format("%s: $%.2f on %s (%s)", charityName, amount, donationDate.toString(), charityType);
+    // Applies a posting recovered from the journal without validating or re-journaling it;
+    // returns the balance after it
+    long replay(String type, long amount, String description, long timestamp) {
+        return replay(type, amount, description, timestamp, null);
+    }
+
+    long replay(String type, long amount, String description, long timestamp, String counterparty) {
+        LedgerLocks.lock(stripe);
+        try {
+            byte code = TransactionStore.typeCode(type);
+            beginWrite();
+            balance = TransactionStore.isCredit(code) ? Money.add(balance, amount) : Money.subtract(balance, amount);
+            transactions.append(code, amount, description, timestamp, counterparty);
+            endWrite();
+            return balance;
+        } finally {
+            LedgerLocks.unlock(stripe);
+        }
     }
 }
 
-class DonationGoal {
-    private double targetPercentage;
-    private String timeFrame;
-    private LocalDate startDate;
-    private LocalDate endDate;
-    private double amountDonated;
-    private String preferredCategories;
+// Columnar transaction history: one primitive array per field instead of one object per
+// posting. Amounts are kept in minor units (cents), the type as a byte code and the
+// description as an id into the shared DescriptionDictionary. A transfer leg keeps only its
+// free text there and the other account in the counterparty column; the "to"/"from" part of
+// its description is put back when read. Callers hold the owning
+// account's stripe lock. With HistorySegments enabled only the newest entries stay in these
+// arrays: older ones are spilled in fixed-size chunks to mapped segment files (see spill).
+class TransactionStore {
+    static final byte DEPOSIT = 0;
+    static final byte WITHDRAW = 1;
+    static final byte TRANSFER_TO = 2;
+    static final byte TRANSFER_FROM = 3;
+
+    static final int ALL_TYPES = 0b1111;
+    static final int CHECKPOINT_INTERVAL = 64;
+
+    private static final String[] TYPE_NAMES = {"DEPOSIT", "WITHDRAW", "TRANSFER_TO", "TRANSFER_FROM"};
+    private static final int INITIAL_CAPACITY = 8;
+    static final int CHUNK_ENTRIES = 4096; // entries per spilled chunk; the hot tier keeps up to twice this
+    private static final int BLOCK_ENTRIES = CHECKPOINT_INTERVAL; // entries decoded together when reading a chunk
+    private static final int BLOCK_HEADER = 13; // per block in a chunk: offset, checkpoint, type mask
+    private static final int CHUNKS_PER_INDEX = 64; // chunk addresses gathered into one index record
+    // Encode buffer for spill, sized for the worst case of 31 bytes an entry
+    private static final ThreadLocal<ByteBuffer> SPILL_BUFFER = ThreadLocal.withInitial(() ->
+            ByteBuffer.allocate(CHUNK_ENTRIES / BLOCK_ENTRIES * BLOCK_HEADER + CHUNK_ENTRIES * 31));
+
+    // Hot tier: positions [coldCount, size), at index position - coldCount
+    private long[] timestamps = new long[INITIAL_CAPACITY]; // non-decreasing, so ranges binary search
+    private long[] amounts = new long[INITIAL_CAPACITY];
+    private byte[] types = new byte[INITIAL_CAPACITY];
+    private int[] descriptions = new int[INITIAL_CAPACITY]; // -1 once the dictionary is full
+    private String[] texts = new String[INITIAL_CAPACITY]; // the description where it is -1
+    private int[] counterparties = new int[INITIAL_CAPACITY]; // transfer legs: other account's dictionary id, else -1
+    private int size;
+    // Cold tier: positions [0, coldCount), chunk k holding CHUNK_ENTRIES from k * CHUNK_ENTRIES.
+    // Chunk addresses are kept here only until CHUNKS_PER_INDEX of them fill an index record
+    // in the segment; the heap then keeps that record's address.
+    private long[] indexAddresses = new long[0];
+    private long[] recentChunks;
+    private int coldCount;
+    // The last cold block read, decoded
+    private int cachedBlock = -1;
+    private long[] blockTimestamps;
+    private long[] blockAmounts;
+    private byte[] blockTypes;
+    private int[] blockDescriptions;
+    private String[] blockTexts;
+    private int[] blockCounterparties;
+    // Positions of each hot type's entries, ascending, so type-filtered pages skip other
+    // types; cold blocks carry a type mask in their chunk's header instead
+    private final int[][] positionsByType = new int[TYPE_NAMES.length][INITIAL_CAPACITY];
+    private final int[] countByType = new int[TYPE_NAMES.length];
+    // Running balance before hot entry coldCount + k * CHECKPOINT_INTERVAL, so a historical
+    // balance needs at most one interval of entries on top of a checkpoint; cold checkpoints
+    // live in their chunk's header
+    private long[] checkpoints = new long[INITIAL_CAPACITY];
+    private long runningBalance;
+    // Per description id, the ascending positions using it; text search finds the matching
+    // ids in DescriptionDictionary and merges only those lists
+    private final LongLongHashMap listByDescription = new LongLongHashMap(); // id -> list + 1
+    private int[][] descriptionPositions = new int[INITIAL_CAPACITY][];
+    private int[] descriptionCounts = new int[INITIAL_CAPACITY];
+    private int[] descriptionIds = new int[INITIAL_CAPACITY]; // list -> description id
+    private int descriptionLists;
+    // Ascending positions of descriptions kept here rather than in the dictionary
+    private int[] inlinePositions = new int[0];
+    private int inlineCount;
+
+    static byte typeCode(String type) {
+        for (byte code = 0; code < TYPE_NAMES.length; code++) {
+            if (TYPE_NAMES[code].equals(type)) {
+                return code;
+            }
+        }
+        throw new IllegalArgumentException("Unknown transaction type: " + type);
+    }
 
-    public DonationGoal(double targetPercentage, String timeFrame, LocalDate startDate,
-                        LocalDate endDate, String preferredCategories) {
-        this.targetPercentage = targetPercentage;
-        this.timeFrame = timeFrame;
-        this.startDate = startDate;
-        this.endDate = endDate;
-        this.amountDonated = 0.0;
-        this.preferredCategories = preferredCategories;
+    static String typeName(byte code) {
+        return TYPE_NAMES[code];
     }
 
-    // Getters and setters
-    public double getTargetPercentage() { return targetPercentage; }
-    public String getTimeFrame() { return timeFrame; }
-    public LocalDate getStartDate() { return startDate; }
-    public LocalDate getEndDate() { return endDate; }
-    public double getAmountDonated() { return amountDonated; }
-    public String getPreferredCategories() { return preferredCategories; }
+    // Reconciliation reads the history through this, see LedgerReconciler
+    interface Visitor {
+        void visit(byte type, long amount, int counterparty);
+    }
 
-    public void addDonation(double amount) {
-        this.amountDonated += amount;
+    public void append(byte type, long amount, String description, long timestamp) {
+        append(type, amount, description, timestamp, null);
+    }
+
+    // A wall clock stepping backwards is recorded at the previous entry's time, keeping
+    // the history in time order. counterparty is the other account of a transfer leg, and
+    // description its free text without the account.
+    public void append(byte type, long amount, String description, long timestamp, String counterparty) {
+        int hot = size - coldCount;
+        if (hot == timestamps.length) {
+            resize(hot + (hot >> 1));
+        }
+        if (hot > 0 && timestamp < timestamps[hot - 1]) {
+            timestamp = timestamps[hot - 1];
+        }
+        int[] positions = positionsByType[type];
+        if (countByType[type] == positions.length) {
+            positions = Arrays.copyOf(positions, positions.length + (positions.length >> 1));
+            positionsByType[type] = positions;
+        }
+        positions[countByType[type]++] = size;
+        if (size % CHECKPOINT_INTERVAL == 0) {
+            int checkpoint = (size - coldCount) / CHECKPOINT_INTERVAL;
+            if (checkpoint == checkpoints.length) {
+                checkpoints = Arrays.copyOf(checkpoints, checkpoint * 2);
+            }
+            checkpoints[checkpoint] = runningBalance;
+        }
+        runningBalance = isCredit(type) ? Money.add(runningBalance, amount) : Money.subtract(runningBalance, amount);
+        timestamps[hot] = timestamp;
+        amounts[hot] = amount;
+        types[hot] = type;
+        descriptions[hot] = DescriptionDictionary.intern(description);
+        texts[hot] = descriptions[hot] < 0 ? description : null;
+        counterparties[hot] = counterparty == null ? -1 : DescriptionDictionary.internName(counterparty);
+        if (descriptions[hot] >= 0) {
+            indexDescription(descriptions[hot], size);
+        } else {
+            if (inlineCount == inlinePositions.length) {
+                inlinePositions = Arrays.copyOf(inlinePositions, Math.max(4, inlineCount * 2));
+            }
+            inlinePositions[inlineCount++] = size;
+        }
+        size++;
+        while (size - coldCount >= 2 * CHUNK_ENTRIES && HistorySegments.isEnabled()) {
+            spill();
+        }
+    }
+
+    // Moves the oldest CHUNK_ENTRIES hot entries into one immutable segment chunk, encoded
+    // in blocks of BLOCK_ENTRIES: a header per block of its offset, its checkpoint and a mask
+    // of the types in it, then per entry the type, the timestamp as a delta from the previous
+    // one, and zigzag varints for the amount, description id and counterparty id. Timestamps
+    // are mostly small deltas and amounts and ids mostly small numbers, so a chunk takes a
+    // fraction of the 25 bytes per entry the arrays use. A description outside the dictionary
+    // follows its -1 id as a length and UTF-8 bytes.
+    private void spill() {
+        int blocks = CHUNK_ENTRIES / BLOCK_ENTRIES;
+        int textBytes = 0;
+        for (int i = 0; i < CHUNK_ENTRIES; i++) {
+            if (texts[i] != null) {
+                textBytes += 5 + 3 * texts[i].length();
+            }
+        }
+        ByteBuffer out = SPILL_BUFFER.get();
+        if (out.capacity() < blocks * BLOCK_HEADER + CHUNK_ENTRIES * 31 + textBytes) {
+            out = ByteBuffer.allocate(blocks * BLOCK_HEADER + CHUNK_ENTRIES * 31 + textBytes);
+            SPILL_BUFFER.set(out);
+        }
+        out.clear().position(blocks * BLOCK_HEADER);
+        for (int block = 0; block < blocks; block++) {
+            int mask = 0;
+            out.putInt(block * BLOCK_HEADER, out.position());
+            out.putLong(block * BLOCK_HEADER + 4, checkpoints[block]);
+            long previous = 0;
+            for (int i = block * BLOCK_ENTRIES; i < (block + 1) * BLOCK_ENTRIES; i++) {
+                mask |= 1 << types[i];
+                out.put(types[i]);
+                putVarLong(out, timestamps[i] - previous);
+                putVarLong(out, amounts[i]);
+                putVarLong(out, descriptions[i]);
+                if (texts[i] != null) {
+                    byte[] text = texts[i].getBytes(StandardCharsets.UTF_8);
+                    putVarLong(out, text.length);
+                    out.put(text);
+                }
+                putVarLong(out, counterparties[i]);
+                previous = timestamps[i];
+            }
+            out.put(block * BLOCK_HEADER + 12, (byte) mask);
+        }
+        out.flip();
+        long address = HistorySegments.write(out);
+
+        int chunk = coldCount / CHUNK_ENTRIES;
+        if (recentChunks == null) {
+            recentChunks = new long[CHUNKS_PER_INDEX];
+        }
+        recentChunks[chunk % CHUNKS_PER_INDEX] = address;
+        if (chunk % CHUNKS_PER_INDEX == CHUNKS_PER_INDEX - 1) {
+            out.clear();
+            for (long recent : recentChunks) {
+                out.putLong(recent);
+            }
+            indexAddresses = Arrays.copyOf(indexAddresses, indexAddresses.length + 1);
+            indexAddresses[indexAddresses.length - 1] = HistorySegments.write(out.flip());
+        }
+        int remaining = size - coldCount - CHUNK_ENTRIES;
+        System.arraycopy(timestamps, CHUNK_ENTRIES, timestamps, 0, remaining);
+        System.arraycopy(amounts, CHUNK_ENTRIES, amounts, 0, remaining);
+        System.arraycopy(types, CHUNK_ENTRIES, types, 0, remaining);
+        System.arraycopy(descriptions, CHUNK_ENTRIES, descriptions, 0, remaining);
+        System.arraycopy(counterparties, CHUNK_ENTRIES, counterparties, 0, remaining);
+        System.arraycopy(texts, CHUNK_ENTRIES, texts, 0, remaining);
+        Arrays.fill(texts, remaining, remaining + CHUNK_ENTRIES, null);
+        System.arraycopy(checkpoints, blocks, checkpoints, 0, checkpoints.length - blocks);
+        coldCount += CHUNK_ENTRIES;
+        for (int type = 0; type < TYPE_NAMES.length; type++) {
+            int drop = firstPositionAtLeast(type, coldCount);
+            System.arraycopy(positionsByType[type], drop, positionsByType[type], 0, countByType[type] - drop);
+            countByType[type] -= drop;
+        }
+    }
+
+    private ByteBuffer chunk(int chunk) {
+        int group = chunk / CHUNKS_PER_INDEX;
+        long address = group < indexAddresses.length
+                ? HistorySegments.read(indexAddresses[group]).getLong(chunk % CHUNKS_PER_INDEX * 8)
+                : recentChunks[chunk % CHUNKS_PER_INDEX];
+        return HistorySegments.read(address);
+    }
+
+    private static void putVarLong(ByteBuffer out, long value) {
+        long zigzag = (value << 1) ^ (value >> 63);
+        while ((zigzag & ~0x7FL) != 0) {
+            out.put((byte) ((zigzag & 0x7F) | 0x80));
+            zigzag >>>= 7;
+        }
+        out.put((byte) zigzag);
+    }
+
+    // Decodes the cold block holding `position` unless it is the one already cached
+    private void loadBlock(int position) {
+        int block = position / BLOCK_ENTRIES;
+        if (block == cachedBlock) {
+            return;
+        }
+        if (blockTimestamps == null) {
+            blockTimestamps = new long[BLOCK_ENTRIES];
+            blockAmounts = new long[BLOCK_ENTRIES];
+            blockTypes = new byte[BLOCK_ENTRIES];
+            blockDescriptions = new int[BLOCK_ENTRIES];
+            blockTexts = new String[BLOCK_ENTRIES];
+            blockCounterparties = new int[BLOCK_ENTRIES];
+        }
+        ByteBuffer chunk = chunk(position / CHUNK_ENTRIES);
+        int[] cursor = {chunk.getInt(position % CHUNK_ENTRIES / BLOCK_ENTRIES * BLOCK_HEADER)};
+        long previous = 0;
+        for (int i = 0; i < BLOCK_ENTRIES; i++) {
+            blockTypes[i] = chunk.get(cursor[0]++);
+            previous += getVarLong(chunk, cursor);
+            blockTimestamps[i] = previous;
+            blockAmounts[i] = getVarLong(chunk, cursor);
+            blockDescriptions[i] = (int) getVarLong(chunk, cursor);
+            blockTexts[i] = null;
+            if (blockDescriptions[i] < 0) {
+                byte[] text = new byte[(int) getVarLong(chunk, cursor)];
+                chunk.get(cursor[0], text);
+                cursor[0] += text.length;
+                blockTexts[i] = new String(text, StandardCharsets.UTF_8);
+            }
+            blockCounterparties[i] = (int) getVarLong(chunk, cursor);
+        }
+        cachedBlock = block;
+    }
+
+    private static long getVarLong(ByteBuffer in, int[] cursor) {
+        long zigzag = 0;
+        int shift = 0;
+        byte b;
+        do {
+            b = in.get(cursor[0]++);
+            zigzag |= (long) (b & 0x7F) << shift;
+            shift += 7;
+        } while (b < 0);
+        return (zigzag >>> 1) ^ -(zigzag & 1);
+    }
+
+    public void visit(int from, int to, Visitor visitor) {
+        for (int i = from; i < to; i++) {
+            visitor.visit(typeAt(i), amountAt(i), counterpartyAt(i));
+        }
+    }
+
+    private void indexDescription(int id, int position) {
+        int list = (int) listByDescription.get(id) - 1;
+        if (list < 0) {
+            list = descriptionLists++;
+            if (list == descriptionIds.length) {
+                descriptionPositions = Arrays.copyOf(descriptionPositions, list * 2);
+                descriptionCounts = Arrays.copyOf(descriptionCounts, list * 2);
+                descriptionIds = Arrays.copyOf(descriptionIds, list * 2);
+            }
+            descriptionPositions[list] = new int[4];
+            descriptionIds[list] = id;
+            listByDescription.put(id, list + 1);
+        }
+        int[] positions = descriptionPositions[list];
+        if (descriptionCounts[list] == positions.length) {
+            positions = Arrays.copyOf(positions, positions.length * 2);
+            descriptionPositions[list] = positions;
+        }
+        positions[descriptionCounts[list]++] = position;
+    }
+
+    // Fills `out` with the positions whose description id is in `ids`, or whose description
+    // kept outside the dictionary matches `terms`, newest first; returns how many were
+    // written. Walks whichever is smaller, the matching ids or this store's distinct
+    // descriptions, then merges the chosen lists from their ends. Descriptions kept here are
+    // checked one by one, newest first.
+    public int search(BitSet ids, Set<String> terms, int[] out) {
+        List<Integer> lists = new ArrayList<>();
+        if (ids.cardinality() < descriptionLists) {
+            for (int id = ids.nextSetBit(0); id >= 0; id = ids.nextSetBit(id + 1)) {
+                int list = (int) listByDescription.get(id) - 1;
+                if (list >= 0) {
+                    lists.add(list);
+                }
+            }
+        } else {
+            for (int list = 0; list < descriptionLists; list++) {
+                if (ids.get(descriptionIds[list])) {
+                    lists.add(list);
+                }
+            }
+        }
+        // heap entries, latest position first, see positionOf
+        PriorityQueue<int[]> heap = new PriorityQueue<>(Math.max(1, lists.size()),
+                (a, b) -> Integer.compare(positionOf(b), positionOf(a)));
+        for (int list : lists) {
+            heap.add(new int[] {list, descriptionCounts[list] - 1});
+        }
+        for (int i = inlineCount - 1, found = 0; i >= 0 && found < out.length; i--) {
+            if (DescriptionDictionary.matches(freeTextAt(inlinePositions[i]), terms)) {
+                heap.add(new int[] {-1, inlinePositions[i]});
+                found++;
+            }
+        }
+        int count = 0;
+        while (count < out.length && !heap.isEmpty()) {
+            int[] head = heap.poll();
+            if (head[0] < 0) {
+                out[count++] = head[1];
+                continue;
+            }
+            out[count++] = descriptionPositions[head[0]][head[1]];
+            if (--head[1] >= 0) {
+                heap.add(head);
+            }
+        }
+        return count;
+    }
+
+    // A search heap entry: {list, index into that list}, or {-1, position} for a description
+    // kept outside the dictionary
+    private int positionOf(int[] entry) {
+        return entry[0] < 0 ? entry[1] : descriptionPositions[entry[0]][entry[1]];
+    }
+
+    // Grows once ahead of a bulk append of `extra` entries
+    public void ensureCapacity(int extra) {
+        int hot = size - coldCount;
+        if (hot + extra > timestamps.length) {
+            resize(Math.max(hot + extra, hot + (hot >> 1)));
+        }
+    }
+
+    private void resize(int capacity) {
+        timestamps = Arrays.copyOf(timestamps, capacity);
+        amounts = Arrays.copyOf(amounts, capacity);
+        types = Arrays.copyOf(types, capacity);
+        descriptions = Arrays.copyOf(descriptions, capacity);
+        texts = Arrays.copyOf(texts, capacity);
+        counterparties = Arrays.copyOf(counterparties, capacity);
+    }
+
+    static boolean isCredit(byte type) {
+        return type == DEPOSIT || type == TRANSFER_FROM;
+    }
+
+    // Balance after every entry up to and including the given time: O(log n) to find the
+    // position, then at most CHECKPOINT_INTERVAL entries past the nearest checkpoint
+    public long balanceAt(long timestamp) {
+        int end = timestamp == Long.MAX_VALUE ? size : lowerBound(timestamp + 1);
+        int checkpoint = end / CHECKPOINT_INTERVAL;
+        if (checkpoint * CHECKPOINT_INTERVAL == size) {
+            return runningBalance; // end == size on an interval boundary: no checkpoint yet
+        }
+        int first = checkpoint * CHECKPOINT_INTERVAL;
+        long balance = first >= coldCount ? checkpoints[(first - coldCount) / CHECKPOINT_INTERVAL]
+                : chunk(first / CHUNK_ENTRIES).getLong(first % CHUNK_ENTRIES / BLOCK_ENTRIES * BLOCK_HEADER + 4);
+        for (int i = checkpoint * CHECKPOINT_INTERVAL; i < end; i++) {
+            balance = isCredit(typeAt(i)) ? Money.add(balance, amountAt(i)) : Money.subtract(balance, amountAt(i));
+        }
+        return balance;
+    }
+
+    // First position whose timestamp is >= the given one (size if none)
+    public int lowerBound(long timestamp) {
+        int low = 0;
+        int high = size;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (timestampAt(mid) < timestamp) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    // Fills `out` with the ascending positions in [start, end) whose type bit is set in
+    // typeMask (bit = 1 << type code); returns how many were written. Cold blocks whose
+    // header mask has none of the wanted types are skipped whole. In the hot tier each wanted
+    // type's position list is binary searched for `start` and the lists are merged, so the
+    // cost there is O(types * log n + out.length) however many entries of other types lie
+    // in range.
+    public int select(int start, int end, int typeMask, int[] out) {
+        if (typeMask == ALL_TYPES) {
+            int count = Math.max(0, Math.min(out.length, end - start));
+            for (int i = 0; i < count; i++) {
+                out[i] = start + i;
+            }
+            return count;
+        }
+        int count = 0;
+        int coldEnd = Math.min(end, coldCount);
+        for (int block = start / BLOCK_ENTRIES; block * BLOCK_ENTRIES < coldEnd && count < out.length; block++) {
+            int first = block * BLOCK_ENTRIES;
+            int mask = chunk(first / CHUNK_ENTRIES).get(first % CHUNK_ENTRIES / BLOCK_ENTRIES * BLOCK_HEADER + 12);
+            if ((mask & typeMask) == 0) {
+                continue;
+            }
+            for (int i = Math.max(first, start); i < Math.min(first + BLOCK_ENTRIES, coldEnd) && count < out.length; i++) {
+                if ((typeMask & (1 << typeAt(i))) != 0) {
+                    out[count++] = i;
+                }
+            }
+        }
+        start = Math.max(start, coldCount);
+        int[] cursors = new int[TYPE_NAMES.length];
+        for (int type = 0; type < TYPE_NAMES.length; type++) {
+            if ((typeMask & (1 << type)) != 0) {
+                cursors[type] = firstPositionAtLeast(type, start);
+            }
+        }
+        while (count < out.length) {
+            int next = end;
+            int nextType = -1;
+            for (int type = 0; type < TYPE_NAMES.length; type++) {
+                if ((typeMask & (1 << type)) != 0 && cursors[type] < countByType[type]
+                        && positionsByType[type][cursors[type]] < next) {
+                    next = positionsByType[type][cursors[type]];
+                    nextType = type;
+                }
+            }
+            if (nextType < 0) {
+                break;
+            }
+            out[count++] = next;
+            cursors[nextType]++;
+        }
+        return count;
+    }
+
+    private int firstPositionAtLeast(int type, int position) {
+        int[] positions = positionsByType[type];
+        int low = 0;
+        int high = countByType[type];
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (positions[mid] < position) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    public int size() { return size; }
+    public int coldSize() { return coldCount; }
+
+    public long timestampAt(int index) {
+        if (index >= coldCount) {
+            return timestamps[index - coldCount];
+        }
+        loadBlock(index);
+        return blockTimestamps[index % BLOCK_ENTRIES];
+    }
+
+    public long amountAt(int index) {
+        if (index >= coldCount) {
+            return amounts[index - coldCount];
+        }
+        loadBlock(index);
+        return blockAmounts[index % BLOCK_ENTRIES];
+    }
+
+    public byte typeAt(int index) {
+        if (index >= coldCount) {
+            return types[index - coldCount];
+        }
+        loadBlock(index);
+        return blockTypes[index % BLOCK_ENTRIES];
+    }
+
+    private String freeTextAt(int index) {
+        if (index >= coldCount) {
+            int id = descriptions[index - coldCount];
+            return id >= 0 ? DescriptionDictionary.lookup(id) : texts[index - coldCount];
+        }
+        loadBlock(index);
+        int id = blockDescriptions[index % BLOCK_ENTRIES];
+        return id >= 0 ? DescriptionDictionary.lookup(id) : blockTexts[index % BLOCK_ENTRIES];
+    }
+
+    private int counterpartyAt(int index) {
+        if (index >= coldCount) {
+            return counterparties[index - coldCount];
+        }
+        loadBlock(index);
+        return blockCounterparties[index % BLOCK_ENTRIES];
+    }
+
+    public String descriptionAt(int index) {
+        String description = freeTextAt(index);
+        int counterparty = counterpartyAt(index);
+        if (counterparty < 0) {
+            return description;
+        }
+        return description + (typeAt(index) == TRANSFER_TO ? " to " : " from ") + DescriptionDictionary.lookup(counterparty);
+    }
+
+    public Transaction get(int index) {
+        int counterparty = counterpartyAt(index);
+        return new Transaction(TYPE_NAMES[typeAt(index)], amountAt(index), descriptionAt(index), timestampAt(index),
+                counterparty < 0 ? null : DescriptionDictionary.lookup(counterparty));
+    }
+}
+
+// Cold tier for TransactionStore: spilled chunks are appended to 64 MB segment files that
+// are memory-mapped once, so reading old history costs page cache rather than heap. A chunk
+// is never rewritten. Segments only hold copies of history that the journal and snapshot
+// already keep, so each start clears the directory and spills afresh while loading.
+class HistorySegments {
+    static final String DEFAULT_DIRECTORY = "moneymate-history";
+    private static final int SEGMENT_BYTES = 64 << 20;
+
+    private static Path directory; // null until enabled
+    private static volatile MappedByteBuffer[] segments = new MappedByteBuffer[0];
+    private static int writeOffset;
+
+    public static synchronized void enable(Path path) throws IOException {
+        Files.createDirectories(path);
+        try (DirectoryStream<Path> old = Files.newDirectoryStream(path, "segment-*.seg")) {
+            for (Path file : old) {
+                Files.delete(file);
+            }
+        }
+        directory = path;
+        segments = new MappedByteBuffer[0];
+        writeOffset = SEGMENT_BYTES; // the first write opens a segment
+    }
+
+    public static boolean isEnabled() {
+        return directory != null;
+    }
+
+    // Returns the chunk's address: segment index in the high half, offset in the low half
+    static synchronized long write(ByteBuffer chunk) {
+        int length = chunk.remaining();
+        if (writeOffset + 4 + length > SEGMENT_BYTES) {
+            openSegment();
+        }
+        MappedByteBuffer segment = segments[segments.length - 1];
+        segment.putInt(writeOffset, length);
+        segment.put(writeOffset + 4, chunk, chunk.position(), length);
+        long address = ((long) (segments.length - 1) << 32) | (writeOffset + 4);
+        writeOffset += 4 + length;
+        return address;
+    }
+
+    // A read-only view starting at the chunk; callers only use absolute reads
+    static ByteBuffer read(long address) {
+        MappedByteBuffer segment = segments[(int) (address >>> 32)];
+        int offset = (int) address;
+        return segment.slice(offset, segment.getInt(offset - 4)).asReadOnlyBuffer();
+    }
+
+    private static void openSegment() {
+        Path file = directory.resolve(String.format("segment-%06d.seg", segments.length));
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE_NEW,
+                StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            MappedByteBuffer[] grown = Arrays.copyOf(segments, segments.length + 1);
+            grown[segments.length] = channel.map(FileChannel.MapMode.READ_WRITE, 0, SEGMENT_BYTES);
+            segments = grown;
+            writeOffset = 0;
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not create history segment " + file, e);
+        }
+    }
+}
+
+// Global dictionary for transaction descriptions: repeated texts such as "Initial deposit"
+// are stored once and referenced by int id from every TransactionStore. Account numbers are
+// kept here too, as transfer counterparties, but only description words are searchable.
+// A description costs about 350 bytes here with its search index, so only the first
+// MAX_DESCRIPTIONS distinct ones are taken; stores keep any later ones with their entries.
+class DescriptionDictionary {
+    private static final int MAX_DESCRIPTIONS = 1 << 16; // about 23 MB
+    private static final ConcurrentHashMap<String, Integer> IDS = new ConcurrentHashMap<>(); // unsearchable: -1 - id
+    private static final ConcurrentSkipListMap<String, IdList> TOKENS = new ConcurrentSkipListMap<>(); // word -> ids
+    private static volatile String[] values = new String[1024];
+    private static int count;
+    private static int searchableCount;
+
+    // The description's id, or -1 once the dictionary is full and it is not already in it
+    public static int intern(String description) {
+        return intern(description, true);
+    }
+
+    // An account number, stored without indexing its text for search
+    public static int internName(String name) {
+        return intern(name, false);
+    }
+
+    private static int intern(String text, boolean searchable) {
+        Integer id = IDS.get(text);
+        if (id != null && (id >= 0 || !searchable)) {
+            return id >= 0 ? id : -1 - id;
+        }
+        synchronized (DescriptionDictionary.class) {
+            id = IDS.get(text);
+            int known;
+            if (searchable && (id == null || id < 0) && searchableCount == MAX_DESCRIPTIONS) {
+                return -1;
+            }
+            if (id == null) {
+                String[] current = values;
+                if (count == current.length) {
+                    current = Arrays.copyOf(current, count * 2);
+                }
+                current[count] = text;
+                values = current;
+                known = count++;
+            } else if (id >= 0 || !searchable) {
+                return id >= 0 ? id : -1 - id;
+            } else {
+                known = -1 - id; // an account number now also used as a description
+            }
+            if (searchable) {
+                searchableCount++;
+                for (String token : tokenize(text)) {
+                    TOKENS.computeIfAbsent(token, t -> new IdList()).add(known);
+                }
+            }
+            IDS.put(text, searchable ? known : -1 - known);
+            return known;
+        }
+    }
+
+    // Ids of descriptions that, for every query term, contain a word starting with it
+    public static BitSet matching(String query) {
+        BitSet result = null;
+        for (String term : tokenize(query)) {
+            BitSet ids = new BitSet();
+            for (IdList list : TOKENS.subMap(term, true, term + Character.MAX_VALUE, false).values()) {
+                list.addTo(ids);
+            }
+            if (result == null) {
+                result = ids;
+            } else {
+                result.and(ids);
+            }
+            if (result.isEmpty()) {
+                break;
+            }
+        }
+        return result == null ? new BitSet() : result;
+    }
+
+    // Whether, for every term, the text has a word starting with it; what matching finds
+    // among dictionary ids, for a description kept outside the dictionary
+    static boolean matches(String text, Set<String> terms) {
+        Set<String> words = tokenize(text);
+        for (String term : terms) {
+            boolean found = false;
+            for (String word : words) {
+                if (word.startsWith(term)) {
+                    found = true;
+                    break;
+                }
+            }
+            if (!found) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // Lower-cased runs of letters and digits, each once
+    static Set<String> tokenize(String text) {
+        Set<String> tokens = new LinkedHashSet<>();
+        int start = -1;
+        for (int i = 0; i <= text.length(); i++) {
+            boolean wordChar = i < text.length() && Character.isLetterOrDigit(text.charAt(i));
+            if (wordChar && start < 0) {
+                start = i;
+            } else if (!wordChar && start >= 0) {
+                tokens.add(text.substring(start, i).toLowerCase(Locale.ROOT));
+                start = -1;
+            }
+        }
+        return tokens;
+    }
+
+    // Growable id list with a single writer (under the dictionary lock) and lock-free readers:
+    // the array is published before the size that covers it
+    private static final class IdList {
+        private volatile int[] ids = new int[4];
+        private volatile int size;
+
+        void add(int id) {
+            int[] current = ids;
+            if (size == current.length) {
+                current = Arrays.copyOf(current, size * 2);
+            }
+            current[size] = id;
+            ids = current;
+            size = size + 1;
+        }
+
+        void addTo(BitSet set) {
+            int n = size;
+            int[] current = ids;
+            for (int i = 0; i < n; i++) {
+                set.set(current[i]);
+            }
+        }
+    }
+
+    public static String lookup(int id) {
+        return values[id];
+    }
+}
+
+// Striped locks for the ledger: every account maps to one stripe, so postings on
+// accounts in different stripes never contend. Pairs are always locked in
+// ascending stripe order, which keeps A->B and B->A transfers deadlock-free.
+class LedgerLocks {
+    private static final int STRIPES = stripeCount();
+    private static final ReentrantLock[] LOCKS = new ReentrantLock[STRIPES];
+
+    static {
+        for (int i = 0; i < STRIPES; i++) {
+            LOCKS[i] = new ReentrantLock();
+        }
+    }
+
+    private static int stripeCount() {
+        int target = Math.max(16, Runtime.getRuntime().availableProcessors() * 8);
+        return Integer.highestOneBit(target - 1) << 1; // next power of two
+    }
+
+    public static int stripes() {
+        return STRIPES;
+    }
+
+    public static int stripeOf(String accountNumber) {
+        int h = accountNumber.hashCode();
+        h ^= (h >>> 16); // spread high bits, same as HashMap
+        return h & (STRIPES - 1);
+    }
+
+    public static void lock(int stripe) {
+        LOCKS[stripe].lock();
+    }
+
+    public static void unlock(int stripe) {
+        LOCKS[stripe].unlock();
+    }
+
+    public static void lockPair(int a, int b) {
+        int first = Math.min(a, b);
+        int second = Math.max(a, b);
+        LOCKS[first].lock();
+        if (second != first) {
+            LOCKS[second].lock();
+        }
+    }
+
+    public static void unlockPair(int a, int b) {
+        int first = Math.min(a, b);
+        int second = Math.max(a, b);
+        if (second != first) {
+            LOCKS[second].unlock();
+        }
+        LOCKS[first].unlock();
+    }
+
+    // Batches lock many stripes; `stripes` must be distinct and in ascending order
+    public static void lockAll(int[] stripes) {
+        for (int stripe : stripes) {
+            LOCKS[stripe].lock();
+        }
+    }
+
+    public static void unlockAll(int[] stripes) {
+        for (int i = stripes.length - 1; i >= 0; i--) {
+            LOCKS[stripes[i]].unlock();
+        }
+    }
+}
+
+// Append-only write-ahead log for registrations and postings. Writers append into an
+// in-memory buffer and get a sequence number; a single flusher thread writes whatever
+// has accumulated and fsyncs once, so every writer waiting in that batch shares the
+// same disk sync (group commit). Records are [length][crc32][body] and recovery stops
+// at the first torn or corrupt record, truncating the tail.
+class TransactionJournal {
+    public static final Path DEFAULT_PATH = Paths.get("moneymate.wal");
+
+    private static final byte REGISTER = 1;
+    private static final byte DEPOSIT = 2;
+    private static final byte WITHDRAW = 3;
+    private static final byte TRANSFER = 4;
+    private static final byte BATCH = 5; // many postings in one record, so recovery is all-or-nothing
+    private static final byte TRANSFER_DEBIT = 6;  // cross-shard transfer, first leg
+    private static final byte TRANSFER_CREDIT = 7; // cross-shard transfer, second leg
+    // User state outside the ledger, one kind per LedgerEvents.USER_STATE event
+    private static final byte REMINDER_ADDED = 8;
+    private static final byte REMINDER_PAID = 9;
+    private static final byte BUDGET_SET = 10;
+    private static final byte WEEKLY_EXPENSE = 11;
+    private static final byte CATEGORY_EXPENSE = 12;
+    private static final byte GROCERY_ADDED = 13;
+    private static final byte GROCERY_REMOVED = 14;
+    private static final byte DONATION = 15;
+    private static final byte DONATION_GOAL = 16;
+    private static final byte PASSWORD_REHASHED = 17;
+    private static final int HEADER_BYTES = 8; // body length + crc32
+
+    private final FileChannel channel;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notEmpty = lock.newCondition();
+    private final Condition synced = lock.newCondition();
+    private final CRC32 crc = new CRC32();
+    private final Thread flusher;
+    private ByteBuffer pending = ByteBuffer.allocate(64 * 1024);
+    private ByteBuffer flushing = ByteBuffer.allocate(64 * 1024);
+    private long appendedSeq;
+    private long durableSeq;
+    private final TreeMap<Long, CompletableFuture<Void>> durableWaiters = new TreeMap<>(); // by sequence
+    private IOException failure;
+    private boolean closed;
+
+    private TransactionJournal(FileChannel channel) {
+        this.channel = channel;
+        this.flusher = new Thread(this::flushLoop, "journal-flusher");
+        this.flusher.setDaemon(true);
+        this.flusher.start();
+    }
+
+    // Opens (or creates) the log and replays every intact record from startOffset into users
+    public static TransactionJournal open(Path path, Map<String, User> users, long startOffset) throws IOException {
+        return open(path, users, startOffset, Runtime.getRuntime().availableProcessors());
+    }
+
+    // Users are rebuilt in parallel across users; the map itself is only touched from the
+    // calling thread, so any map will do
+    public static TransactionJournal open(Path path, Map<String, User> users, long startOffset,
+                                          int parallelism) throws IOException {
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE,
+                StandardOpenOption.READ, StandardOpenOption.WRITE);
+        if (channel.size() < startOffset) {
+            channel.close();
+            throw new IOException("Journal is shorter than the snapshot checkpoint (" + startOffset + " bytes)");
+        }
+        Map<Long, PendingCredit> inFlight = new LinkedHashMap<>();
+        long validEnd = recover(channel, users, startOffset, inFlight, Long.MAX_VALUE, true, parallelism);
+        channel.truncate(validEnd);
+        channel.position(validEnd);
+        TransactionJournal journal = new TransactionJournal(channel);
+
+        // A crash between the legs of a cross-shard transfer leaves a debit without its
+        // credit. The credit cannot fail, so it is completed now and logged as such.
+        long seq = 0;
+        for (PendingCredit credit : inFlight.values()) {
+            User recipient = users.get(credit.toAccount);
+            if (recipient != null) {
+                long now = System.currentTimeMillis();
+                seq = journal.logTransferLeg(false, now, credit.toAccount, credit.fromAccount, credit.amount,
+                        credit.description, credit.transferId, null);
+                recipient.getAccount().replay("TRANSFER_FROM", credit.amount,
+                        credit.description, now, credit.fromAccount);
+            }
+        }
+        journal.awaitDurable(seq);
+        return journal;
+    }
+
+    // Users as they stood at asOfMillis, rebuilt from the whole log. The log is only read,
+    // and neither the idempotency cache nor the reminder checker sees the result.
+    public static Map<String, User> replayAsOf(Path path, long asOfMillis, int parallelism) throws IOException {
+        Map<String, User> users = new LinkedHashMap<>();
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            recover(channel, users, 0, new LinkedHashMap<>(), asOfMillis, false, parallelism);
+        }
+        return users;
+    }
+
+    private static final class PendingCredit {
+        final String fromAccount;
+        final String toAccount;
+        final long amount;
+        final String description;
+        final long transferId;
+
+        PendingCredit(String fromAccount, String toAccount, long amount, String description, long transferId) {
+            this.fromAccount = fromAccount;
+            this.toAccount = toAccount;
+            this.amount = amount;
+            this.description = description;
+            this.transferId = transferId;
+        }
+    }
+
+    // A non-null idempotency key is written after the posting, so recovery can rebuild
+    // the dedup cache; records without one end at the description as before
+    public long logDeposit(long timestamp, String accountNumber, long amount, String description,
+                           String idempotencyKey) {
+        return logPosting(DEPOSIT, timestamp, accountNumber, null, amount, description, idempotencyKey);
+    }
+
+    public long logWithdraw(long timestamp, String accountNumber, long amount, String description,
+                            String idempotencyKey) {
+        return logPosting(WITHDRAW, timestamp, accountNumber, null, amount, description, idempotencyKey);
+    }
+
+    public long logTransfer(long timestamp, String fromAccount, String toAccount, long amount, String description,
+                            String idempotencyKey) {
+        return logPosting(TRANSFER, timestamp, fromAccount, toAccount, amount, description, idempotencyKey);
+    }
+
+    public long logBatch(long timestamp, List<Posting> postings) {
+        lock.lock();
+        try {
+            int start = beginRecord(BATCH, timestamp);
+            ensure(4);
+            pending.putInt(postings.size());
+            for (Posting posting : postings) {
+                byte kind = posting.getType() == Posting.DEPOSIT ? DEPOSIT
+                        : posting.getType() == Posting.WITHDRAW ? WITHDRAW : TRANSFER;
+                ensure(1);
+                pending.put(kind);
+                putPosting(posting.getAccount().getAccountNumber(),
+                        posting.getRecipient() == null ? null : posting.getRecipient().getAccountNumber(),
+                        posting.getAmount(), posting.getDescription());
+            }
+            return endRecord(start);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // One leg of a two-step transfer: the account it applies to, then the other side
+    public long logTransferLeg(boolean debit, long timestamp, String accountNumber, String counterparty, long amount,
+                               String description, long transferId, String idempotencyKey) {
+        lock.lock();
+        try {
+            int start = beginRecord(debit ? TRANSFER_DEBIT : TRANSFER_CREDIT, timestamp);
+            putPosting(accountNumber, counterparty, amount, description);
+            ensure(8);
+            pending.putLong(transferId);
+            if (idempotencyKey != null) {
+                putString(idempotencyKey);
+            }
+            return endRecord(start);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Registrations are rare, so they append and wait for the sync in one call
+    public void logRegistration(User user) {
+        long seq;
+        lock.lock();
+        try {
+            int start = beginRecord(REGISTER, System.currentTimeMillis());
+            putString(user.getAccountNumber());
+            putString(user.getName());
+            putString(user.getEmail());
+            putString(user.getPhone());
+            putString(user.getPassword());
+            putString(user.getAddress());
+            putString(user.getOccupation());
+            ensure(4);
+            pending.putInt(user.getAge());
+            seq = endRecord(start);
+        } finally {
+            lock.unlock();
+        }
+        awaitDurable(seq);
+    }
+
+    // One of the LedgerEvents.USER_STATE events; dates are stored as epoch days
+    public long logUserEvent(long timestamp, Object event) {
+        lock.lock();
+        try {
+            int start;
+            if (event instanceof LedgerEvents.ReminderAdded) {
+                LedgerEvents.ReminderAdded added = (LedgerEvents.ReminderAdded) event;
+                Reminder reminder = added.reminder;
+                start = beginUserRecord(REMINDER_ADDED, timestamp, added.user);
+                putLong(reminder.getId());
+                putString(reminder.getBillType());
+                putLong(reminder.getAmount());
+                putLong(reminder.getDueDate().toEpochDay());
+                putString(reminder.getDescription());
+                putString(reminder.getPriority());
+            } else if (event instanceof LedgerEvents.ReminderPaid) {
+                LedgerEvents.ReminderPaid paid = (LedgerEvents.ReminderPaid) event;
+                start = beginUserRecord(REMINDER_PAID, timestamp, paid.user);
+                putLong(paid.reminderId);
+            } else if (event instanceof LedgerEvents.BudgetSet) {
+                LedgerEvents.BudgetSet set = (LedgerEvents.BudgetSet) event;
+                start = beginUserRecord(BUDGET_SET, timestamp, set.user);
+                putLong(set.salary);
+                putLong(set.limit);
+            } else if (event instanceof LedgerEvents.WeeklyExpenseRecorded) {
+                LedgerEvents.WeeklyExpenseRecorded recorded = (LedgerEvents.WeeklyExpenseRecorded) event;
+                start = beginUserRecord(WEEKLY_EXPENSE, timestamp, recorded.user);
+                putLong(Budget.epochMonth(recorded.month));
+                putInt(recorded.week);
+                putLong(recorded.amount);
+            } else if (event instanceof LedgerEvents.CategoryExpenseRecorded) {
+                LedgerEvents.CategoryExpenseRecorded recorded = (LedgerEvents.CategoryExpenseRecorded) event;
+                start = beginUserRecord(CATEGORY_EXPENSE, timestamp, recorded.user);
+                putString(recorded.category);
+                putLong(recorded.amount);
+                putLong(recorded.date.toEpochDay());
+            } else if (event instanceof LedgerEvents.GroceryAdded) {
+                LedgerEvents.GroceryAdded added = (LedgerEvents.GroceryAdded) event;
+                GroceryItem item = added.item;
+                start = beginUserRecord(GROCERY_ADDED, timestamp, added.user);
+                putLong(item.getId());
+                putString(item.getName());
+                putString(item.getCategory());
+                putLong(item.getPrice());
+                putInt(item.getQuantity());
+                putLong(item.getPurchaseDate().toEpochDay());
+            } else if (event instanceof LedgerEvents.GroceryRemoved) {
+                LedgerEvents.GroceryRemoved removed = (LedgerEvents.GroceryRemoved) event;
+                start = beginUserRecord(GROCERY_REMOVED, timestamp, removed.user);
+                putLong(removed.itemId);
+            } else if (event instanceof LedgerEvents.DonationRecorded) {
+                LedgerEvents.DonationRecorded recorded = (LedgerEvents.DonationRecorded) event;
+                Donation donation = recorded.donation;
+                start = beginUserRecord(DONATION, timestamp, recorded.user);
+                putString(donation.getCharityName());
+                putString(donation.getCharityType());
+                putLong(donation.getAmount());
+                putLong(donation.getDonationDate().toEpochDay());
+                putString(donation.getPaymentMethod());
+                putInt(donation.isTaxDeductible() ? 1 : 0);
+                putString(donation.getReceiptId());
+                putString(donation.getDescription());
+            } else if (event instanceof LedgerEvents.DonationGoalSet) {
+                LedgerEvents.DonationGoalSet set = (LedgerEvents.DonationGoalSet) event;
+                DonationGoal goal = set.goal;
+                start = beginUserRecord(DONATION_GOAL, timestamp, set.user);
+                putLong(Double.doubleToLongBits(goal.getTargetPercentage()));
+                putString(goal.getTimeFrame());
+                putLong(goal.getStartDate().toEpochDay());
+                putLong(goal.getEndDate().toEpochDay());
+                putString(goal.getPreferredCategories());
+                putLong(goal.getAmountDonated()); // a goal can be set with donations already counted
+            } else if (event instanceof LedgerEvents.PasswordRehashed) {
+                LedgerEvents.PasswordRehashed rehashed = (LedgerEvents.PasswordRehashed) event;
+                start = beginUserRecord(PASSWORD_REHASHED, timestamp, rehashed.user);
+                putString(rehashed.hash);
+            } else {
+                throw new IllegalArgumentException("Not a user state event: " + event.getClass().getSimpleName());
+            }
+            return endRecord(start);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Blocks until the record with this sequence number has been fsynced
+    public void awaitDurable(long seq) {
+        lock.lock();
+        try {
+            while (durableSeq < seq) {
+                if (failure != null) {
+                    throw new UncheckedIOException("Journal write failed", failure);
+                }
+                synced.awaitUninterruptibly();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Non-blocking form of awaitDurable. Waiters for the same sequence share one completion,
+    // which runs on the flusher thread, so callers should move real work to their own executor
+    public CompletableFuture<Void> whenDurable(long seq) {
+        lock.lock();
+        try {
+            if (durableSeq >= seq) {
+                return CompletableFuture.completedFuture(null);
+            }
+            if (failure != null) {
+                return CompletableFuture.failedFuture(new UncheckedIOException("Journal write failed", failure));
+            }
+            return durableWaiters.computeIfAbsent(seq, ignored -> new CompletableFuture<>()).copy();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public void close() throws IOException {
+        lock.lock();
+        try {
+            closed = true;
+            notEmpty.signal();
+        } finally {
+            lock.unlock();
+        }
+        try {
+            flusher.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        channel.close();
+    }
+
+    private long logPosting(byte kind, long timestamp, String accountNumber, String counterparty,
+                            long amount, String description, String idempotencyKey) {
+        lock.lock();
+        try {
+            int start = beginRecord(kind, timestamp);
+            putPosting(accountNumber, counterparty, amount, description);
+            if (idempotencyKey != null) {
+                putString(idempotencyKey);
+            }
+            return endRecord(start);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void putPosting(String accountNumber, String counterparty, long amount, String description) {
+        putString(accountNumber);
+        if (counterparty != null) {
+            putString(counterparty);
+        }
+        ensure(8);
+        pending.putLong(amount);
+        putString(description);
+    }
+
+    private int beginRecord(byte kind, long timestamp) {
+        if (failure != null) {
+            throw new UncheckedIOException("Journal write failed", failure);
+        }
+        if (closed) {
+            throw new IllegalStateException("Journal is closed");
+        }
+        ensure(HEADER_BYTES + 9);
+        int start = pending.position();
+        pending.position(start + HEADER_BYTES);
+        pending.put(kind);
+        pending.putLong(timestamp);
+        return start;
+    }
+
+    private long endRecord(int start) {
+        int bodyStart = start + HEADER_BYTES;
+        int length = pending.position() - bodyStart;
+        crc.reset();
+        crc.update(pending.array(), bodyStart, length);
+        pending.putInt(start, length);
+        pending.putInt(start + 4, (int) crc.getValue());
+        notEmpty.signal();
+        return ++appendedSeq;
+    }
+
+    private int beginUserRecord(byte kind, long timestamp, User user) {
+        int start = beginRecord(kind, timestamp);
+        putString(user.getAccountNumber());
+        return start;
+    }
+
+    private void putString(String value) {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        ensure(4 + bytes.length);
+        pending.putInt(bytes.length);
+        pending.put(bytes);
+    }
+
+    private void putLong(long value) {
+        ensure(8);
+        pending.putLong(value);
+    }
+
+    private void putInt(int value) {
+        ensure(4);
+        pending.putInt(value);
+    }
+
+    private void ensure(int bytes) {
+        if (pending.remaining() < bytes) {
+            ByteBuffer grown = ByteBuffer.allocate(Math.max(pending.capacity() * 2, pending.position() + bytes));
+            pending.flip();
+            grown.put(pending);
+            pending = grown;
+        }
+    }
+
+    private void flushLoop() {
+        while (true) {
+            long target;
+            lock.lock();
+            try {
+                while (pending.position() == 0 && !closed) {
+                    notEmpty.awaitUninterruptibly();
+                }
+                if (pending.position() == 0) {
+                    return; // closed and drained
+                }
+                ByteBuffer swap = pending;
+                pending = flushing;
+                flushing = swap;
+                target = appendedSeq;
+            } finally {
+                lock.unlock();
+            }
+
+            try {
+                flushing.flip();
+                while (flushing.hasRemaining()) {
+                    channel.write(flushing);
+                }
+                channel.force(false);
+                flushing.clear();
+            } catch (IOException e) {
+                List<CompletableFuture<Void>> failed;
+                lock.lock();
+                try {
+                    failure = e;
+                    synced.signalAll();
+                    failed = new ArrayList<>(durableWaiters.values());
+                    durableWaiters.clear();
+                } finally {
+                    lock.unlock();
+                }
+                for (CompletableFuture<Void> waiter : failed) {
+                    waiter.completeExceptionally(new UncheckedIOException("Journal write failed", e));
+                }
+                return;
+            }
+
+            List<CompletableFuture<Void>> ready = null;
+            lock.lock();
+            try {
+                durableSeq = target;
+                synced.signalAll();
+                if (!durableWaiters.isEmpty()) {
+                    SortedMap<Long, CompletableFuture<Void>> done = durableWaiters.headMap(target, true);
+                    ready = new ArrayList<>(done.values());
+                    done.clear();
+                }
+            } finally {
+                lock.unlock();
+            }
+            if (ready != null) {
+                for (CompletableFuture<Void> waiter : ready) {
+                    waiter.complete(null);
+                }
+            }
+        }
+    }
+
+    // A record decoded ahead of the apply phase. Its step changes only the named account's
+    // user; a transfer has a second step for the recipient and applies only if both exist.
+    private static final class Decoded {
+        final byte kind;
+        final long timestamp;
+        final String accountNumber;
+        final Consumer<User> step;
+        String counterparty;
+        Consumer<User> counterpartyStep;
+        User registered;
+        PendingCredit debit;
+        long transferId;
+
+        Decoded(byte kind, long timestamp, String accountNumber, Consumer<User> step) {
+            this.kind = kind;
+            this.timestamp = timestamp;
+            this.accountNumber = accountNumber;
+            this.step = step;
+        }
+    }
+
+    private static final int CHUNKS_PER_THREAD = 4;
+
+    // Record boundaries are found first (sequentially, since lengths chain). With more than one
+    // thread the rest is three phases: check and decode records (parallel), resolve accounts in log order (sequential, so registrations and
+    // in-flight legs behave exactly as a plain replay), then run each user's steps in order
+    // (parallel across users). Records stamped after asOfMillis are left out.
+    private static long recover(FileChannel channel, Map<String, User> users, long startOffset,
+                                Map<Long, PendingCredit> inFlight, long asOfMillis, boolean restoreKeys,
+                                int parallelism) throws IOException {
+        long size = channel.size();
+        if (size == startOffset) {
+            return startOffset;
+        }
+        ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, startOffset, size - startOffset);
+        int[] offsets = new int[1024];
+        int count = 0;
+        int position = 0;
+        while (buffer.limit() - position >= HEADER_BYTES) {
+            int length = buffer.getInt(position);
+            if (length <= 0 || length > buffer.limit() - position - HEADER_BYTES) {
+                break; // torn write at the tail
+            }
+            if (count == offsets.length) {
+                offsets = Arrays.copyOf(offsets, count * 2);
+            }
+            offsets[count++] = position;
+            position += HEADER_BYTES + length;
+        }
+        if (count == 0) {
+            return startOffset;
+        }
+        int[] starts = Arrays.copyOf(offsets, count + 1);
+        starts[count] = position;
+        if (parallelism <= 1) {
+            return startOffset + starts[replayInOrder(buffer, starts, count, users, inFlight, asOfMillis, restoreKeys)];
+        }
+
+        ForkJoinPool pool = new ForkJoinPool(parallelism);
+        try {
+            int chunks = Math.min(count, parallelism * CHUNKS_PER_THREAD);
+            int records = count;
+            int[] decodedUpTo = new int[chunks];
+            List<List<Decoded>> decoded = new ArrayList<>(Collections.nCopies(chunks, null));
+            inParallel(pool, chunks, chunk -> {
+                int to = (int) ((long) records * (chunk + 1) / chunks);
+                CRC32 checksum = new CRC32();
+                List<Decoded> out = new ArrayList<>();
+                int record = (int) ((long) records * chunk / chunks);
+                for (; record < to; record++) {
+                    int offset = starts[record];
+                    ByteBuffer body = buffer.slice(offset + HEADER_BYTES, buffer.getInt(offset));
+                    checksum.reset();
+                    checksum.update(body.duplicate());
+                    if ((int) checksum.getValue() != buffer.getInt(offset + 4)) {
+                        break;
+                    }
+                    decode(body, restoreKeys, out);
+                }
+                decodedUpTo[chunk] = record;
+                decoded.set(chunk, out);
+            });
+
+            // The first corrupt record ends the log, as a torn tail would
+            int valid = records;
+            Map<User, List<Consumer<User>>> steps = new IdentityHashMap<>();
+            for (int chunk = 0; chunk < chunks; chunk++) {
+                for (Decoded record : decoded.get(chunk)) {
+                    if (record.timestamp <= asOfMillis) {
+                        resolve(record, users, steps, inFlight);
+                    }
+                }
+                if (decodedUpTo[chunk] < (int) ((long) records * (chunk + 1) / chunks)) {
+                    valid = decodedUpTo[chunk];
+                    break;
+                }
+            }
+            decoded.clear();
+
+            List<Map.Entry<User, List<Consumer<User>>>> groups = new ArrayList<>(steps.entrySet());
+            int tasks = Math.min(groups.size(), parallelism * CHUNKS_PER_THREAD);
+            inParallel(pool, tasks, task -> {
+                int to = (int) ((long) groups.size() * (task + 1) / tasks);
+                for (int i = (int) ((long) groups.size() * task / tasks); i < to; i++) {
+                    User user = groups.get(i).getKey();
+                    for (Consumer<User> step : groups.get(i).getValue()) {
+                        step.accept(user);
+                    }
+                }
+            });
+            return startOffset + starts[valid];
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    // Single-threaded form: each record is applied as soon as it is decoded, which keeps
+    // it in cache and builds no per-user step lists. Returns the number of intact records.
+    private static int replayInOrder(ByteBuffer buffer, int[] starts, int count, Map<String, User> users,
+                                     Map<Long, PendingCredit> inFlight, long asOfMillis, boolean restoreKeys) {
+        CRC32 checksum = new CRC32();
+        List<Decoded> decoded = new ArrayList<>();
+        for (int record = 0; record < count; record++) {
+            ByteBuffer body = buffer.slice(starts[record] + HEADER_BYTES, buffer.getInt(starts[record]));
+            checksum.reset();
+            checksum.update(body.duplicate());
+            if ((int) checksum.getValue() != buffer.getInt(starts[record] + 4)) {
+                return record;
+            }
+            decoded.clear();
+            decode(body, restoreKeys, decoded);
+            for (Decoded step : decoded) {
+                if (step.timestamp <= asOfMillis) {
+                    resolve(step, users, null, inFlight);
+                }
+            }
+        }
+        return count;
+    }
+
+    private static void inParallel(ForkJoinPool pool, int tasks, IntConsumer task) {
+        List<ForkJoinTask<?>> running = new ArrayList<>(tasks);
+        for (int i = 0; i < tasks; i++) {
+            int index = i;
+            running.add(pool.submit(() -> task.accept(index)));
+        }
+        for (ForkJoinTask<?> submitted : running) {
+            submitted.join();
+        }
+    }
+
+    // Queues the record's steps under the users they apply to, or applies them at once
+    // when steps is null
+    private static void resolve(Decoded record, Map<String, User> users, Map<User, List<Consumer<User>>> steps,
+                                Map<Long, PendingCredit> inFlight) {
+        if (record.kind == REGISTER) {
+            users.put(record.accountNumber, record.registered);
+            return;
+        }
+        if (record.kind == TRANSFER_CREDIT) {
+            inFlight.remove(record.transferId);
+        }
+        User user = users.get(record.accountNumber);
+        if (user == null) {
+            return;
+        }
+        User recipient = record.counterpartyStep == null ? null : users.get(record.counterparty);
+        if (record.counterpartyStep != null && recipient == null) {
+            return;
+        }
+        addStep(steps, user, record.step);
+        if (recipient != null) {
+            addStep(steps, recipient, record.counterpartyStep);
+        }
+        if (record.debit != null) {
+            inFlight.put(record.debit.transferId, record.debit);
+        }
+    }
+
+    private static void addStep(Map<User, List<Consumer<User>>> steps, User user, Consumer<User> step) {
+        if (steps == null) {
+            step.accept(user);
+        } else {
+            steps.computeIfAbsent(user, ignored -> new ArrayList<>()).add(step);
+        }
+    }
+
+    private static void decode(ByteBuffer body, boolean restoreKeys, List<Decoded> out) {
+        byte kind = body.get();
+        long timestamp = body.getLong();
+        if (kind == BATCH) {
+            int count = body.getInt();
+            for (int i = 0; i < count; i++) {
+                decode(body.get(), timestamp, body, false, out);
+            }
+        } else if (kind == TRANSFER_DEBIT || kind == TRANSFER_CREDIT) {
+            decodeTransferLeg(kind, timestamp, body, restoreKeys, out);
+        } else {
+            decode(kind, timestamp, body, restoreKeys, out);
+        }
+    }
+
+    private static void decodeTransferLeg(byte kind, long timestamp, ByteBuffer body, boolean restoreKeys,
+                                          List<Decoded> out) {
+        String accountNumber = getString(body);
+        String counterparty = getString(body);
+        long amount = body.getLong();
+        String description = getString(body);
+        long transferId = body.getLong();
+        String idempotencyKey = restoreKeys && body.hasRemaining() ? getString(body) : null;
+        Decoded record;
+        if (kind == TRANSFER_CREDIT) {
+            record = new Decoded(kind, timestamp, accountNumber, user -> user.getAccount().replay("TRANSFER_FROM",
+                    amount, description, timestamp, counterparty));
+        } else {
+            record = new Decoded(kind, timestamp, accountNumber, user -> {
+                long balance = user.getAccount().replay("TRANSFER_TO", amount, description, timestamp, counterparty);
+                if (idempotencyKey != null) {
+                    IdempotencyCache.POSTINGS.restore(accountNumber, idempotencyKey,
+                            IdempotencyCache.fingerprint(Posting.TRANSFER, amount, counterparty),
+                            new PostingResult("TRANSFER_TO", amount, balance, timestamp));
+                }
+            });
+            record.debit = new PendingCredit(accountNumber, counterparty, amount, description, transferId);
+        }
+        record.transferId = transferId;
+        out.add(record);
+    }
+
+    // `keyed`: the record holds only this posting, so trailing bytes are its idempotency
+    // key, and the key is wanted
+    private static void decode(byte kind, long timestamp, ByteBuffer body, boolean keyed, List<Decoded> out) {
+        String accountNumber = getString(body);
+        switch (kind) {
+            case REGISTER: {
+                String name = getString(body);
+                String email = getString(body);
+                String phone = getString(body);
+                String password = getString(body);
+                String address = getString(body);
+                String occupation = getString(body);
+                int age = body.getInt();
+                Decoded record = new Decoded(kind, timestamp, accountNumber, null);
+                record.registered = User.restore(name, email, phone, password, accountNumber, address, occupation, age);
+                // the budget period starts at registration, so dated events roll it as they did live
+                record.registered.getBudget().restorePeriod(YearMonth.from(
+                        Instant.ofEpochMilli(timestamp).atZone(ZoneId.systemDefault())));
+                out.add(record);
+                break;
+            }
+            case DEPOSIT:
+            case WITHDRAW: {
+                long amount = body.getLong();
+                String description = getString(body);
+                String idempotencyKey = keyed && body.hasRemaining() ? getString(body) : null;
+                String type = kind == DEPOSIT ? "DEPOSIT" : "WITHDRAW";
+                out.add(new Decoded(kind, timestamp, accountNumber, user -> {
+                    long balance = user.getAccount().replay(type, amount, description, timestamp);
+                    if (idempotencyKey != null) {
+                        IdempotencyCache.POSTINGS.restore(accountNumber, idempotencyKey,
+                                IdempotencyCache.fingerprint(kind == DEPOSIT ? Posting.DEPOSIT : Posting.WITHDRAW,
+                                        amount, null),
+                                new PostingResult(type, amount, balance, timestamp));
+                    }
+                }));
+                break;
+            }
+            case TRANSFER: {
+                String toAccount = getString(body);
+                long amount = body.getLong();
+                String description = getString(body);
+                String idempotencyKey = keyed && body.hasRemaining() ? getString(body) : null;
+                Decoded record = new Decoded(kind, timestamp, accountNumber, user -> {
+                    long balance = user.getAccount().replay("TRANSFER_TO", amount, description, timestamp, toAccount);
+                    if (idempotencyKey != null) {
+                        IdempotencyCache.POSTINGS.restore(accountNumber, idempotencyKey,
+                                IdempotencyCache.fingerprint(Posting.TRANSFER, amount, toAccount),
+                                new PostingResult("TRANSFER_TO", amount, balance, timestamp));
+                    }
+                });
+                record.counterparty = toAccount;
+                record.counterpartyStep = user -> user.getAccount().replay("TRANSFER_FROM", amount,
+                        description, timestamp, accountNumber);
+                out.add(record);
+                break;
+            }
+            case REMINDER_ADDED: {
+                Reminder reminder = new Reminder(body.getLong(), getString(body), body.getLong(),
+                        LocalDate.ofEpochDay(body.getLong()), getString(body), getString(body));
+                out.add(new Decoded(kind, timestamp, accountNumber,
+                        user -> LedgerEvents.apply(new LedgerEvents.ReminderAdded(user, reminder))));
+                break;
+            }
+            case REMINDER_PAID: {
+                long reminderId = body.getLong();
+                out.add(new Decoded(kind, timestamp, accountNumber,
+                        user -> LedgerEvents.apply(new LedgerEvents.ReminderPaid(user, reminderId))));
+                break;
+            }
+            case BUDGET_SET: {
+                long salary = body.getLong();
+                long limit = body.getLong();
+                out.add(new Decoded(kind, timestamp, accountNumber,
+                        user -> LedgerEvents.apply(new LedgerEvents.BudgetSet(user, salary, limit))));
+                break;
+            }
+            case WEEKLY_EXPENSE: {
+                YearMonth month = Budget.fromEpochMonth(body.getLong());
+                int week = body.getInt();
+                long amount = body.getLong();
+                out.add(new Decoded(kind, timestamp, accountNumber,
+                        user -> LedgerEvents.apply(new LedgerEvents.WeeklyExpenseRecorded(user, month, week, amount))));
+                break;
+            }
+            case CATEGORY_EXPENSE: {
+                String category = getString(body);
+                long amount = body.getLong();
+                LocalDate date = LocalDate.ofEpochDay(body.getLong());
+                out.add(new Decoded(kind, timestamp, accountNumber, user -> LedgerEvents.apply(
+                        new LedgerEvents.CategoryExpenseRecorded(user, category, amount, date))));
+                break;
+            }
+            case GROCERY_ADDED: {
+                GroceryItem item = new GroceryItem(body.getLong(), getString(body), getString(body), body.getLong(),
+                        body.getInt(), LocalDate.ofEpochDay(body.getLong()));
+                out.add(new Decoded(kind, timestamp, accountNumber,
+                        user -> LedgerEvents.apply(new LedgerEvents.GroceryAdded(user, item))));
+                break;
+            }
+            case GROCERY_REMOVED: {
+                long itemId = body.getLong();
+                out.add(new Decoded(kind, timestamp, accountNumber,
+                        user -> LedgerEvents.apply(new LedgerEvents.GroceryRemoved(user, itemId))));
+                break;
+            }
+            case DONATION: {
+                Donation donation = new Donation(getString(body), getString(body), body.getLong(),
+                        LocalDate.ofEpochDay(body.getLong()), getString(body), body.getInt() != 0, getString(body),
+                        getString(body));
+                out.add(new Decoded(kind, timestamp, accountNumber,
+                        user -> LedgerEvents.apply(new LedgerEvents.DonationRecorded(user, donation))));
+                break;
+            }
+            case DONATION_GOAL: {
+                double targetPercentage = Double.longBitsToDouble(body.getLong());
+                String timeFrame = getString(body);
+                LocalDate startDate = LocalDate.ofEpochDay(body.getLong());
+                LocalDate endDate = LocalDate.ofEpochDay(body.getLong());
+                DonationGoal goal = new DonationGoal(targetPercentage, timeFrame, startDate, endDate, getString(body));
+                goal.addDonation(body.getLong());
+                out.add(new Decoded(kind, timestamp, accountNumber,
+                        user -> LedgerEvents.apply(new LedgerEvents.DonationGoalSet(user, goal))));
+                break;
+            }
+            case PASSWORD_REHASHED: {
+                String hash = getString(body);
+                out.add(new Decoded(kind, timestamp, accountNumber,
+                        user -> LedgerEvents.apply(new LedgerEvents.PasswordRehashed(user, hash))));
+                break;
+            }
+            default:
+                break; // unknown record kinds are skipped
+        }
+    }
+
+    private static String getString(ByteBuffer body) {
+        byte[] bytes = new byte[body.getInt()];
+        body.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
+
+// Compact binary snapshot of every user, written through a MappedByteBuffer. Records are
+// followed by an open-addressing index of (hash, offset) slots, so one user can be located
+// and decoded on demand without deserializing anyone else. The snapshot also remembers
+// the journal offset it covers, so recovery only replays postings made after it.
+class UserSnapshot {
+    public static final Path DEFAULT_PATH = Paths.get("moneymate.snapshot");
+
+    private static final int MAGIC = 0x4D4D534E; // "MMSN"
+    private static final int VERSION = 5; // 2: amounts stored as long minor units, 3: budget aggregates,
+                                          // 4: transfer counterparties, 5: reminder and grocery ids
+    private static final int HEADER_BYTES = 32; // magic, version, journal offset, users, slots, index offset
+    private static final int SLOT_BYTES = 12;   // key hash + record offset
+
+    private final ByteBuffer buffer;
+    private final long journalOffset;
+    private final int userCount;
+    private final int slotCount;
+    private final int indexOffset;
+
+    private UserSnapshot(ByteBuffer buffer) {
+        this.buffer = buffer;
+        this.journalOffset = buffer.getLong(8);
+        this.userCount = buffer.getInt(16);
+        this.slotCount = buffer.getInt(20);
+        this.indexOffset = (int) buffer.getLong(24);
+    }
+
+    // Maps an existing snapshot; returns null when there is none yet
+    public static UserSnapshot open(Path path) throws IOException {
+        if (!Files.exists(path)) {
+            return null;
+        }
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (channel.size() < HEADER_BYTES || buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION) {
+                throw new IOException("Not a MoneyMate snapshot: " + path);
+            }
+            return new UserSnapshot(buffer);
+        }
+    }
+
+    public long getJournalOffset() { return journalOffset; }
+    public int size() { return userCount; }
+
+    public boolean contains(String accountNumber) {
+        return findRecord(accountNumber) >= 0;
+    }
+
+    // Decodes a single user straight from the mapping; null if not in the snapshot
+    public User load(String accountNumber) {
+        int offset = findRecord(accountNumber);
+        if (offset < 0) {
+            return null;
+        }
+        ByteBuffer in = buffer.duplicate();
+        in.position(offset + 4); // skip record length
+        return decode(in);
+    }
+
+    public Iterator<String> accountNumbers() {
+        return new Iterator<String>() {
+            private int slot = nextOccupied(0);
+
+            public boolean hasNext() {
+                return slot < slotCount;
+            }
+
+            public String next() {
+                if (slot >= slotCount) {
+                    throw new NoSuchElementException();
+                }
+                String key = readKey(recordOffsetAt(slot));
+                slot = nextOccupied(slot + 1);
+                return key;
+            }
+        };
+    }
+
+    // Writes a new snapshot atomically: users already in memory are re-encoded, everyone
+    // else is copied from the previous snapshot as raw bytes without being decoded.
+    public static void write(Path path, long journalOffset, UserSnapshot previous,
+                             Map<String, User> loaded) throws IOException {
+        List<String> keys = new ArrayList<>();
+        List<byte[]> encoded = new ArrayList<>(); // null entries are copied from previous
+        List<Integer> rawOffsets = new ArrayList<>();
+        long total = HEADER_BYTES;
+        for (User user : loaded.values()) {
+            byte[] record = encode(user);
+            keys.add(user.getAccountNumber());
+            encoded.add(record);
+            rawOffsets.add(-1);
+            total += record.length;
+        }
+        if (previous != null) {
+            for (int slot = 0; slot < previous.slotCount; slot++) {
+                int offset = previous.recordOffsetAt(slot);
+                if (offset == 0) {
+                    continue;
+                }
+                String key = previous.readKey(offset);
+                if (!loaded.containsKey(key)) {
+                    keys.add(key);
+                    encoded.add(null);
+                    rawOffsets.add(offset);
+                    total += 4 + previous.buffer.getInt(offset);
+                }
+            }
+        }
+
+        int slots = Integer.highestOneBit(Math.max(2, keys.size() * 2) - 1) << 1;
+        long indexOffset = total;
+        total += (long) slots * SLOT_BYTES;
+        if (total > Integer.MAX_VALUE) {
+            throw new IOException("Snapshot exceeds the 2 GB mapping limit");
+        }
+
+        Path temp = path.resolveSibling(path.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            MappedByteBuffer out = channel.map(FileChannel.MapMode.READ_WRITE, 0, total);
+            out.putInt(MAGIC).putInt(VERSION).putLong(journalOffset)
+                    .putInt(keys.size()).putInt(slots).putLong(indexOffset);
+            int[] offsets = new int[keys.size()];
+            for (int i = 0; i < keys.size(); i++) {
+                offsets[i] = out.position();
+                byte[] record = encoded.get(i);
+                if (record != null) {
+                    out.put(record);
+                } else {
+                    int offset = rawOffsets.get(i);
+                    out.put(previous.buffer.slice(offset, 4 + previous.buffer.getInt(offset)));
+                }
+            }
+            for (int i = 0; i < keys.size(); i++) {
+                int hash = spread(keys.get(i).hashCode());
+                int slot = hash & (slots - 1);
+                while (out.getLong((int) indexOffset + slot * SLOT_BYTES + 4) != 0) {
+                    slot = (slot + 1) & (slots - 1);
+                }
+                out.putInt((int) indexOffset + slot * SLOT_BYTES, hash);
+                out.putLong((int) indexOffset + slot * SLOT_BYTES + 4, offsets[i]);
+            }
+            out.force();
+        }
+        Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private int findRecord(String accountNumber) {
+        byte[] key = accountNumber.getBytes(StandardCharsets.UTF_8);
+        int hash = spread(accountNumber.hashCode());
+        int mask = slotCount - 1;
+        for (int slot = hash & mask; ; slot = (slot + 1) & mask) {
+            int offset = recordOffsetAt(slot);
+            if (offset == 0) {
+                return -1;
+            }
+            if (buffer.getInt(indexOffset + slot * SLOT_BYTES) == hash && keyMatches(offset, key)) {
+                return offset;
+            }
+        }
+    }
+
+    private int recordOffsetAt(int slot) {
+        return (int) buffer.getLong(indexOffset + slot * SLOT_BYTES + 4);
+    }
+
+    private int nextOccupied(int slot) {
+        while (slot < slotCount && recordOffsetAt(slot) == 0) {
+            slot++;
+        }
+        return slot;
+    }
+
+    private boolean keyMatches(int offset, byte[] key) {
+        if (buffer.getInt(offset + 4) != key.length) {
+            return false;
+        }
+        for (int i = 0; i < key.length; i++) {
+            if (buffer.get(offset + 8 + i) != key[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private String readKey(int offset) {
+        ByteBuffer in = buffer.duplicate();
+        in.position(offset + 4);
+        return getString(in);
+    }
+
+    private static int spread(int h) {
+        return h ^ (h >>> 16);
+    }
+
+    // Record layout: [length][account number][profile][transactions][reminders][budget]
+    // [groceries][donations][donation goal]
+    private static byte[] encode(User user) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(256);
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(0); // length, patched below
+        putString(out, user.getAccountNumber());
+        putString(out, user.getName());
+        putString(out, user.getEmail());
+        putString(out, user.getPhone());
+        putString(out, user.getPassword());
+        putString(out, user.getAddress());
+        putString(out, user.getOccupation());
+        out.writeInt(user.getAge());
+
+        List<Transaction> transactions = user.getAccount().getTransactions();
+        out.writeInt(transactions.size());
+        for (Transaction transaction : transactions) {
+            putString(out, transaction.getType());
+            out.writeLong(transaction.getAmount());
+            putString(out, transaction.getDescription());
+            out.writeLong(transaction.getTimestamp().getTime());
+            putString(out, transaction.getCounterparty() == null ? "" : transaction.getCounterparty());
+        }
+
+        out.writeInt(user.getReminders().size());
+        for (Reminder reminder : user.getReminders()) {
+            out.writeLong(reminder.getId());
+            putString(out, reminder.getBillType());
+            out.writeLong(reminder.getAmount());
+            out.writeLong(reminder.getDueDate().toEpochDay());
+            putString(out, reminder.getDescription());
+            putString(out, reminder.getPriority());
+            out.writeBoolean(reminder.isPaid());
+        }
+
+        Budget budget = user.getBudget();
+        out.writeLong(budget.getMonthlySalary());
+        out.writeLong(budget.getBudgetLimit());
+        out.writeLong(budget.getCurrentExpenses());
+        Map<String, Long> categories = budget.getCategoryExpenses();
+        out.writeInt(categories.size());
+        for (Map.Entry<String, Long> entry : categories.entrySet()) {
+            putString(out, entry.getKey());
+            out.writeLong(entry.getValue());
+        }
+        out.writeLong(Budget.epochMonth(budget.getPeriod()));
+        for (int week = 1; week <= Budget.MAX_WEEKS; week++) {
+            out.writeLong(budget.getWeeklyExpense(week));
+        }
+        putTotals(out, budget.dailyExpenses());
+        putTotals(out, budget.monthlyExpenses());
+
+        out.writeInt(user.getGroceryItems().size());
+        for (GroceryItem item : user.getGroceryItems()) {
+            out.writeLong(item.getId());
+            putString(out, item.getName());
+            putString(out, item.getCategory());
+            out.writeLong(item.getPrice());
+            out.writeInt(item.getQuantity());
+            out.writeLong(item.getPurchaseDate().toEpochDay());
+        }
+
+        out.writeInt(user.getDonations().size());
+        for (Donation donation : user.getDonations()) {
+            putString(out, donation.getCharityName());
+            putString(out, donation.getCharityType());
+            out.writeLong(donation.getAmount());
+            out.writeLong(donation.getDonationDate().toEpochDay());
+            putString(out, donation.getPaymentMethod());
+            out.writeBoolean(donation.isTaxDeductible());
+            putString(out, donation.getReceiptId());
+            putString(out, donation.getDescription());
+        }
+
+        DonationGoal goal = user.getDonationGoal();
+        out.writeBoolean(goal != null);
+        if (goal != null) {
+            out.writeDouble(goal.getTargetPercentage());
+            putString(out, goal.getTimeFrame());
+            out.writeLong(goal.getStartDate().toEpochDay());
+            out.writeLong(goal.getEndDate().toEpochDay());
+            out.writeLong(goal.getAmountDonated());
+            putString(out, goal.getPreferredCategories());
+        }
+
+        byte[] record = bytes.toByteArray();
+        ByteBuffer.wrap(record).putInt(0, record.length - 4);
+        return record;
+    }
+
+    private static User decode(ByteBuffer in) {
+        String accountNumber = getString(in);
+        String name = getString(in);
+        String email = getString(in);
+        String phone = getString(in);
+        String password = getString(in);
+        String address = getString(in);
+        String occupation = getString(in);
+        int age = in.getInt();
+        User user = User.restore(name, email, phone, password, accountNumber, address, occupation, age);
+
+        int transactionCount = in.getInt();
+        for (int i = 0; i < transactionCount; i++) {
+            String type = getString(in);
+            long amount = in.getLong();
+            String description = getString(in);
+            long timestamp = in.getLong();
+            String counterparty = getString(in);
+            if (counterparty.isEmpty()) {
+                user.getAccount().replay(type, amount, description, timestamp);
+            } else {
+                String suffix = (type.equals("TRANSFER_TO") ? " to " : " from ") + counterparty;
+                user.getAccount().replay(type, amount, description.endsWith(suffix)
+                        ? description.substring(0, description.length() - suffix.length()) : description, timestamp, counterparty);
+            }
+        }
+
+        int reminderCount = in.getInt();
+        for (int i = 0; i < reminderCount; i++) {
+            long id = in.getLong();
+            String billType = getString(in);
+            long amount = in.getLong();
+            LocalDate dueDate = LocalDate.ofEpochDay(in.getLong());
+            String description = getString(in);
+            String priority = getString(in);
+            Reminder reminder = new Reminder(id, billType, amount, dueDate, description, priority);
+            if (in.get() != 0) {
+                reminder.markAsPaid();
+            }
+            user.getReminders().add(reminder);
+            ReminderService.track(user, reminder);
+        }
+
+        Budget budget = user.getBudget();
+        budget.setMonthlySalary(in.getLong());
+        budget.setBudgetLimit(in.getLong());
+        budget.addExpense(in.getLong());
+        int categoryCount = in.getInt();
+        for (int i = 0; i < categoryCount; i++) {
+            String category = getString(in);
+            budget.restoreCategoryExpense(category, in.getLong());
+        }
+        long period = in.getLong();
+        budget.restorePeriod(Budget.fromEpochMonth(period));
+        for (int week = 1; week <= Budget.MAX_WEEKS; week++) {
+            budget.restoreWeeklyExpense(week, in.getLong());
+        }
+        getTotals(in, budget.dailyExpenses());
+        getTotals(in, budget.monthlyExpenses());
+
+        // Groceries and donations are already reflected in the budget totals above
+        int groceryCount = in.getInt();
+        for (int i = 0; i < groceryCount; i++) {
+            long id = in.getLong();
+            String itemName = getString(in);
+            String category = getString(in);
+            long price = in.getLong();
+            int quantity = in.getInt();
+            user.getGroceryItems().add(new GroceryItem(id, itemName, category, price, quantity,
+                    LocalDate.ofEpochDay(in.getLong())));
+        }
+
+        int donationCount = in.getInt();
+        for (int i = 0; i < donationCount; i++) {
+            String charityName = getString(in);
+            String charityType = getString(in);
+            long amount = in.getLong();
+            LocalDate donationDate = LocalDate.ofEpochDay(in.getLong());
+            String paymentMethod = getString(in);
+            boolean taxDeductible = in.get() != 0;
+            String receiptId = getString(in);
+            String description = getString(in);
+            user.getDonations().add(new Donation(charityName, charityType, amount, donationDate,
+                    paymentMethod, taxDeductible, receiptId, description));
+        }
+
+        if (in.get() != 0) {
+            double targetPercentage = in.getDouble();
+            String timeFrame = getString(in);
+            LocalDate startDate = LocalDate.ofEpochDay(in.getLong());
+            LocalDate endDate = LocalDate.ofEpochDay(in.getLong());
+            long amountDonated = in.getLong();
+            DonationGoal goal = new DonationGoal(targetPercentage, timeFrame, startDate, endDate, getString(in));
+            goal.addDonation(amountDonated);
+            user.setDonationGoal(goal);
+        }
+        return user;
+    }
+
+    private static void putTotals(DataOutputStream out, LongLongHashMap totals) throws IOException {
+        long[] keys = totals.sortedKeys();
+        out.writeInt(keys.length);
+        for (long key : keys) {
+            out.writeLong(key);
+            out.writeLong(totals.get(key));
+        }
+    }
+
+    private static void getTotals(ByteBuffer in, LongLongHashMap totals) {
+        int count = in.getInt();
+        for (int i = 0; i < count; i++) {
+            long key = in.getLong();
+            totals.add(key, in.getLong());
+        }
+    }
+
+    private static void putString(DataOutputStream out, String value) throws IOException {
+        if (value == null) {
+            out.writeInt(-1);
+            return;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String getString(ByteBuffer in) {
+        int length = in.getInt();
+        if (length < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        in.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
+
+// Dense numeric ids for account numbers, assigned in registration order. An account number
+// is packed into a long without hashing the String, and the id it maps to indexes straight
+// into an array of users. Account numbers too long to pack fall back to a String map.
+class AccountIndex {
+    private final LongIntHashMap ids = new LongIntHashMap(1024);
+    private final ConcurrentHashMap<String, Integer> unpacked = new ConcurrentHashMap<>();
+    private volatile AtomicReferenceArray<User> users = new AtomicReferenceArray<>(1024);
+    private volatile int count;
+
+    // Up to 15 digits are kept as their value with the length in bits 50-53, so leading
+    // zeros stay distinct; up to 7 other ASCII characters are packed a byte each with
+    // bit 63 set. Returns 0 when the account number fits neither form.
+    static long keyOf(String accountNumber) {
+        int length = accountNumber.length();
+        if (length == 0) {
+            return 0;
+        }
+        if (length <= 15) {
+            long value = 0;
+            int i = 0;
+            for (; i < length; i++) {
+                char c = accountNumber.charAt(i);
+                if (c < '0' || c > '9') {
+                    break;
+                }
+                value = value * 10 + (c - '0');
+            }
+            if (i == length) {
+                return ((long) length << 50) | value;
+            }
+        }
+        if (length <= 7) {
+            long packed = 0;
+            for (int i = 0; i < length; i++) {
+                char c = accountNumber.charAt(i);
+                if (c == 0 || c > 127) {
+                    return 0;
+                }
+                packed = packed << 8 | c;
+            }
+            return packed | Long.MIN_VALUE;
+        }
+        return 0;
+    }
+
+    // -1 when the account number has not been registered
+    public int idOf(String accountNumber) {
+        long key = keyOf(accountNumber);
+        if (key != 0) {
+            return ids.get(key);
+        }
+        Integer id = unpacked.get(accountNumber);
+        return id == null ? -1 : id;
+    }
+
+    public User get(int id) {
+        AtomicReferenceArray<User> slots = users;
+        return id >= 0 && id < slots.length() ? slots.get(id) : null;
+    }
+
+    // Ids run from 0 to size() - 1
+    public int size() {
+        return count;
+    }
+
+    public synchronized User put(String accountNumber, User user) {
+        int id = idOf(accountNumber);
+        if (id >= 0) {
+            return users.getAndSet(id, user);
+        }
+        register(accountNumber, user);
+        return null;
+    }
+
+    public synchronized User putIfAbsent(String accountNumber, User user) {
+        int id = idOf(accountNumber);
+        if (id >= 0) {
+            return users.get(id);
+        }
+        register(accountNumber, user);
+        return null;
+    }
+
+    // The user is stored before its key is published, so a reader that finds the id
+    // also finds the user
+    private void register(String accountNumber, User user) {
+        int id = count;
+        AtomicReferenceArray<User> slots = users;
+        if (id == slots.length()) {
+            AtomicReferenceArray<User> grown = new AtomicReferenceArray<>(slots.length() * 2);
+            for (int i = 0; i < id; i++) {
+                grown.set(i, slots.get(i));
+            }
+            users = grown;
+            slots = grown;
+        }
+        slots.set(id, user);
+        long key = keyOf(accountNumber);
+        if (key != 0) {
+            ids.putIfAbsent(key, id);
+        } else {
+            unpacked.put(accountNumber, id);
+        }
+        count = id + 1;
+    }
+}
+
+// Users map backed by a UserSnapshot: a user is decoded from the mapped file the first
+// time it is looked up and stays in memory from then on. Point lookups stay lazy; a full
+// iteration (e.g. the reminder checker) loads users as it walks them.
+class SnapshotUserMap extends AbstractMap<String, User> {
+    private final UserSnapshot snapshot; // null when starting without a snapshot
+    private final AccountIndex loaded = new AccountIndex(); // users in memory, by dense id
+    private final AtomicInteger added = new AtomicInteger(); // users not present in the snapshot
+
+    public SnapshotUserMap(UserSnapshot snapshot) {
+        this.snapshot = snapshot;
+    }
+
+    // Dense id of an account already in memory, or -1; a snapshot user gets one on first load
+    public int idOf(String accountNumber) {
+        int id = loaded.idOf(accountNumber);
+        if (id < 0 && get(accountNumber) != null) {
+            id = loaded.idOf(accountNumber);
+        }
+        return id;
+    }
+
+    public User byId(int id) {
+        return loaded.get(id);
+    }
+
+    @Override
+    public User get(Object key) {
+        if (!(key instanceof String)) {
+            return null;
+        }
+        String accountNumber = (String) key;
+        User user = loaded.get(loaded.idOf(accountNumber));
+        if (user != null || snapshot == null) {
+            return user;
+        }
+        user = snapshot.load(accountNumber);
+        if (user == null) {
+            return null;
+        }
+        User raced = loaded.putIfAbsent(accountNumber, user);
+        return raced != null ? raced : user;
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return key instanceof String && (loaded.idOf((String) key) >= 0
+                || (snapshot != null && snapshot.contains((String) key)));
+    }
+
+    @Override
+    public User put(String key, User value) {
+        User previous = loaded.put(key, value);
+        if (previous == null && (snapshot == null || !snapshot.contains(key))) {
+            added.incrementAndGet();
+        }
+        return previous;
+    }
+
+    // Atomic against concurrent sessions registering the same account number
+    @Override
+    public User putIfAbsent(String key, User value) {
+        User existing = get(key);
+        if (existing != null) {
+            return existing;
+        }
+        existing = loaded.putIfAbsent(key, value);
+        if (existing == null) {
+            added.incrementAndGet();
+        }
+        return existing;
+    }
+
+    @Override
+    public int size() {
+        return (snapshot == null ? 0 : snapshot.size()) + added.get();
+    }
+
+    // Without a snapshot every user is in memory, so scans walk the id array directly
+    @Override
+    public Collection<User> values() {
+        return snapshot == null ? loadedValues() : super.values();
+    }
+
+    // Users already in memory (registered since the snapshot, replayed or looked up), in id
+    // order; users that are still only in the snapshot are not decoded
+    public Collection<User> loadedValues() {
+        return new AbstractCollection<User>() {
+            public int size() {
+                return loaded.size();
+            }
+
+            public Iterator<User> iterator() {
+                return new Iterator<User>() {
+                    private final int end = loaded.size();
+                    private int id;
+
+                    public boolean hasNext() {
+                        return id < end;
+                    }
+
+                    public User next() {
+                        if (id >= end) {
+                            throw new NoSuchElementException();
+                        }
+                        return loaded.get(id++);
+                    }
+                };
+            }
+        };
+    }
+
+    @Override
+    public Set<Map.Entry<String, User>> entrySet() {
+        return new AbstractSet<Map.Entry<String, User>>() {
+            public int size() {
+                return SnapshotUserMap.this.size();
+            }
+
+            public Iterator<Map.Entry<String, User>> iterator() {
+                return new Iterator<Map.Entry<String, User>>() {
+                    private final Iterator<String> stored = snapshot == null
+                            ? Collections.emptyIterator() : snapshot.accountNumbers();
+                    private final int end = loaded.size();
+                    private int id;
+                    private Map.Entry<String, User> next = advance();
+
+                    private Map.Entry<String, User> advance() {
+                        if (stored.hasNext()) {
+                            String key = stored.next();
+                            return new AbstractMap.SimpleImmutableEntry<>(key, get(key));
+                        }
+                        while (id < end) {
+                            User user = loaded.get(id++);
+                            if (snapshot == null || !snapshot.contains(user.getAccountNumber())) {
+                                return new AbstractMap.SimpleImmutableEntry<>(user.getAccountNumber(), user);
+                            }
+                        }
+                        return null;
+                    }
+
+                    public boolean hasNext() {
+                        return next != null;
+                    }
+
+                    public Map.Entry<String, User> next() {
+                        if (next == null) {
+                            throw new NoSuchElementException();
+                        }
+                        Map.Entry<String, User> current = next;
+                        next = advance();
+                        return current;
+                    }
+                };
+            }
+        };
+    }
+
+    // Writes a new snapshot covering the journal up to journalOffset
+    public void checkpoint(Path path, long journalOffset) throws IOException {
+        Map<String, User> inMemory = new HashMap<>();
+        for (int id = 0, end = loaded.size(); id < end; id++) {
+            User user = loaded.get(id);
+            inMemory.put(user.getAccountNumber(), user);
+        }
+        UserSnapshot.write(path, journalOffset, snapshot, inMemory);
+    }
+}
+
+class Transaction {
+    private String type;
+    private long amount;
+    private String description;
+    private Date timestamp;
+    private String counterparty; // other account of a transfer, null otherwise
+
+    public Transaction(String type, long amount, String description) {
+        this(type, amount, description, System.currentTimeMillis());
+    }
+
+    public Transaction(String type, long amount, String description, long timestamp) {
+        this(type, amount, description, timestamp, null);
+    }
+
+    public Transaction(String type, long amount, String description, long timestamp, String counterparty) {
+        this.type = type;
+        this.amount = amount;
+        this.description = description;
+        this.timestamp = new Date(timestamp);
+        this.counterparty = counterparty;
+    }
+
+    public String getType() { return type; }
+    public long getAmount() { return amount; }
+    public String getDescription() { return description; }
+    public Date getTimestamp() { return timestamp; }
+    public String getCounterparty() { return counterparty; }
+
+    @Override
+    public String toString() {
+        return String.format("[%s] %s: $%s - %s", timestamp, type, Money.format(amount), description);
+    }
+}
+
+// One entry of an AccountService.postBatch call
+class Posting {
+    static final byte DEPOSIT = 0;
+    static final byte WITHDRAW = 1;
+    static final byte TRANSFER = 2;
+
+    private final byte type;
+    private final Account account;
+    private final Account recipient; // transfers only
+    private final long amount;
+    private final String description;
+
+    private Posting(byte type, Account account, Account recipient, long amount, String description) {
+        this.type = type;
+        this.account = account;
+        this.recipient = recipient;
+        this.amount = amount;
+        this.description = description;
+    }
+
+    public static Posting deposit(Account account, long amount, String description) {
+        return new Posting(DEPOSIT, account, null, amount, description);
+    }
+
+    public static Posting withdraw(Account account, long amount, String description) {
+        return new Posting(WITHDRAW, account, null, amount, description);
+    }
+
+    public static Posting transfer(Account from, Account to, long amount, String description) {
+        return new Posting(TRANSFER, from, to, amount, description);
+    }
+
+    public byte getType() { return type; }
+    public Account getAccount() { return account; }
+    public Account getRecipient() { return recipient; }
+    public long getAmount() { return amount; }
+    public String getDescription() { return description; }
+}
+
+// Outcome of a single posting, as seen by the account that initiated it
+class PostingResult {
+    private final String type;
+    private final long amount;
+    private final long balanceAfter;
+    private final long timestamp;
+    private final long journalSeq; // record that made it durable, 0 if it was not journaled
+
+    public PostingResult(String type, long amount, long balanceAfter, long timestamp) {
+        this(type, amount, balanceAfter, timestamp, 0);
+    }
+
+    PostingResult(String type, long amount, long balanceAfter, long timestamp, long journalSeq) {
+        this.type = type;
+        this.amount = amount;
+        this.balanceAfter = balanceAfter;
+        this.timestamp = timestamp;
+        this.journalSeq = journalSeq;
+    }
+
+    public String getType() { return type; }
+    public long getAmount() { return amount; }
+    public long getBalanceAfter() { return balanceAfter; }
+    public long getTimestamp() { return timestamp; }
+    long getJournalSeq() { return journalSeq; }
+
+    @Override
+    public String toString() {
+        return String.format("[%s] %s: $%s, balance $%s", new Date(timestamp), type,
+                Money.format(amount), Money.format(balanceAfter));
+    }
+}
+
+// Balance and transaction count read together, see Account.readBalance
+class AccountBalance {
+    private final long balance;
+    private final int transactionCount;
+
+    public AccountBalance(long balance, int transactionCount) {
+        this.balance = balance;
+        this.transactionCount = transactionCount;
+    }
+
+    public long getBalance() { return balance; }
+    public int getTransactionCount() { return transactionCount; }
+}
+
+// Bounded dedup cache for idempotent postings: (account, key) -> the first request's
+// result. The first caller installs a future with putIfAbsent and runs the posting;
+// concurrent retries wait on that future, later ones read it, so there is no lock beyond
+// the map's own bins. Entries expire after the TTL and the oldest go first once the cache
+// is full, via a FIFO of completed entries trimmed by whoever inserts. Only successful
+// postings are remembered; a rejected one can be retried with the same key.
+class IdempotencyCache {
+    static final IdempotencyCache POSTINGS = new IdempotencyCache(1_000_000, TimeUnit.HOURS.toMillis(24));
+
+    interface Action<E extends Exception> {
+        PostingResult run() throws E;
+    }
+
+    private static final class Entry {
+        final String id;
+        final long fingerprint; // of the posting the key was first used for
+        final long expiresAt; // wall clock, so entries rebuilt from the journal age correctly
+        final CompletableFuture<PostingResult> result = new CompletableFuture<>();
+
+        Entry(String id, long fingerprint, long expiresAt) {
+            this.id = id;
+            this.fingerprint = fingerprint;
+            this.expiresAt = expiresAt;
+        }
+    }
+
+    private final int maxEntries;
+    private final long ttlMillis;
+    private final ConcurrentHashMap<String, Entry> entries = new ConcurrentHashMap<>();
+    private final ConcurrentLinkedQueue<Entry> order = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger size = new AtomicInteger();
+
+    IdempotencyCache(int maxEntries, long ttlMillis) {
+        this.maxEntries = maxEntries;
+        this.ttlMillis = ttlMillis;
+    }
+
+    // What a retry must repeat: the posting type (a Posting code), amount and other account.
+    // The paying account is the key's scope, and a retry may word the description differently.
+    static long fingerprint(byte type, long amount, String counterparty) {
+        long hash = amount * 0x9E3779B97F4A7C15L + type;
+        return hash ^ (counterparty == null ? 0 : (long) counterparty.hashCode() << 32 | counterparty.length());
+    }
+
+    private static IllegalArgumentException reused(String key) {
+        return new IllegalArgumentException("Idempotency key " + key + " was already used for a different posting");
+    }
+
+    // A key reused for a different posting is rejected with IllegalArgumentException rather
+    // than answered with the first posting's result
+    @SuppressWarnings("unchecked")
+    public <E extends Exception> PostingResult execute(String scope, String key, long fingerprint, Action<E> action)
+            throws E {
+        String id = scope + '\u0000' + key;
+        Entry fresh = new Entry(id, fingerprint, System.currentTimeMillis() + ttlMillis);
+        while (true) {
+            Entry existing = entries.putIfAbsent(id, fresh);
+            if (existing == null) {
+                break;
+            }
+            if (existing.expiresAt > System.currentTimeMillis()) {
+                if (existing.fingerprint != fingerprint) {
+                    throw reused(key);
+                }
+                try {
+                    return existing.result.join(); // original result, or wait for it
+                } catch (CompletionException e) {
+                    if (e.getCause() instanceof RuntimeException) {
+                        throw (RuntimeException) e.getCause();
+                    }
+                    throw (E) e.getCause(); // the original attempt failed the same way
+                }
+            }
+            entries.remove(id, existing); // expired: post again under the same key
+        }
+
+        PostingResult result;
+        try {
+            result = action.run();
+        } catch (Exception e) {
+            entries.remove(id, fresh);
+            fresh.result.completeExceptionally(e);
+            throw e;
+        }
+        fresh.result.complete(result);
+        remember(fresh);
+        return result;
+    }
+
+    // Asynchronous form: `start` is only called for the first request with this key, and
+    // every request gets a future of that first posting's outcome
+    public CompletableFuture<PostingResult> executeAsync(String scope, String key, long fingerprint,
+                                                         Supplier<CompletableFuture<PostingResult>> start) {
+        String id = scope + '\u0000' + key;
+        Entry fresh = new Entry(id, fingerprint, System.currentTimeMillis() + ttlMillis);
+        while (true) {
+            Entry existing = entries.putIfAbsent(id, fresh);
+            if (existing == null) {
+                break;
+            }
+            if (existing.expiresAt > System.currentTimeMillis()) {
+                if (existing.fingerprint != fingerprint) {
+                    return CompletableFuture.failedFuture(reused(key));
+                }
+                return existing.result.thenApply(result -> result);
+            }
+            entries.remove(id, existing);
+        }
+        start.get().whenComplete((result, failure) -> {
+            if (failure != null) {
+                entries.remove(id, fresh);
+                fresh.result.completeExceptionally(failure instanceof CompletionException ? failure.getCause() : failure);
+            } else {
+                fresh.result.complete(result);
+                remember(fresh);
+            }
+        });
+        return fresh.result.thenApply(result -> result);
+    }
+
+    // Rebuilds an entry from a journaled posting if it is still inside the TTL
+    void restore(String scope, String key, long fingerprint, PostingResult result) {
+        long expiresAt = result.getTimestamp() + ttlMillis;
+        if (expiresAt <= System.currentTimeMillis()) {
+            return;
+        }
+        Entry entry = new Entry(scope + '\u0000' + key, fingerprint, expiresAt);
+        entry.result.complete(result);
+        if (entries.putIfAbsent(entry.id, entry) == null) {
+            remember(entry);
+        }
+    }
+
+    public int size() {
+        return size.get();
+    }
+
+    private void remember(Entry entry) {
+        order.add(entry);
+        size.incrementAndGet();
+        long now = System.currentTimeMillis();
+        Entry oldest;
+        while ((oldest = order.peek()) != null && (size.get() > maxEntries || oldest.expiresAt <= now)) {
+            oldest = order.poll();
+            if (oldest != null) {
+                entries.remove(oldest.id, oldest);
+                size.decrementAndGet();
+            }
+        }
+    }
+}
+
+// History filter: postings with fromMillis <= timestamp < toMillis, optionally limited to
+// some transaction types (no types = all), returned pageSize at a time
+class HistoryQuery {
+    private final long fromMillis;
+    private final long toMillis;
+    private final int typeMask;
+    private final int pageSize;
+
+    public HistoryQuery(long fromMillis, long toMillis, int pageSize, String... types) {
+        if (pageSize <= 0) {
+            throw new IllegalArgumentException("Page size must be positive");
+        }
+        int mask = 0;
+        for (String type : types) {
+            mask |= 1 << TransactionStore.typeCode(type);
+        }
+        this.fromMillis = fromMillis;
+        this.toMillis = toMillis;
+        this.typeMask = mask == 0 ? TransactionStore.ALL_TYPES : mask;
+        this.pageSize = pageSize;
+    }
+
+    public long getFromMillis() { return fromMillis; }
+    public long getToMillis() { return toMillis; }
+    public int getTypeMask() { return typeMask; }
+    public int getPageSize() { return pageSize; }
+}
+
+class HistoryPage {
+    static final long END = -1; // next cursor when there are no further pages
+
+    private final List<Transaction> transactions;
+    private final long nextCursor;
+
+    public HistoryPage(List<Transaction> transactions, long nextCursor) {
+        this.transactions = transactions;
+        this.nextCursor = nextCursor;
+    }
+
+    public List<Transaction> getTransactions() { return transactions; }
+    public long getNextCursor() { return nextCursor; }
+    public boolean hasMore() { return nextCursor != END; }
+}
+
+class Reminder {
+    // Ids outlive restarts without being persisted, as ShardedUserRegistry's transfer ids do
+    private static final AtomicLong ids = new AtomicLong(System.currentTimeMillis() << 20);
+
+    private final long id; // stable for the reminder's life; events name it by id, not position
+    private String billType;
+    private long amount;
+    private LocalDate dueDate;
+    private String description;
+    private String priority;
+    private boolean isPaid;
+
+    public Reminder(String billType, long amount, LocalDate dueDate, String description, String priority) {
+        this(ids.incrementAndGet(), billType, amount, dueDate, description, priority);
+    }
+
+    // Restores a journaled or snapshotted reminder under its original id
+    Reminder(long id, String billType, long amount, LocalDate dueDate, String description, String priority) {
+        this.id = id;
+        this.billType = billType;
+        this.amount = amount;
+        this.dueDate = dueDate;
+        this.description = description;
+        this.priority = priority;
+        this.isPaid = false;
+    }
+
+    public long getId() { return id; }
+    public String getBillType() { return billType; }
+    public long getAmount() { return amount; }
+    public LocalDate getDueDate() { return dueDate; }
+    public String getDescription() { return description; }
+    public String getPriority() { return priority; }
+    public boolean isPaid() { return isPaid; }
+    public void markAsPaid() { this.isPaid = true; }
+
+    public boolean isDue() {
+        return isDue(LocalDate.now());
+    }
+
+    public boolean isDue(LocalDate today) {
+        return !today.isBefore(dueDate);
+    }
+
+    public boolean isDueInDays(int days) {
+        return isDueInDays(days, LocalDate.now());
+    }
+
+    public boolean isDueInDays(int days, LocalDate today) {
+        return !today.plusDays(days).isBefore(dueDate);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s: $%s due on %s [%s] - %s (%s)",
+                billType, Money.format(amount), dueDate.toString(), isPaid ? "PAID" : "PENDING", description, priority);
+    }
+}
+
+class GroceryItem {
+    private static final AtomicLong ids = new AtomicLong(System.currentTimeMillis() << 20);
+
+    private final long id; // stable for the item's life, see Reminder
+    private String name;
+    private String category;
+    private long price;
+    private int quantity;
+    private LocalDate purchaseDate;
+
+    public GroceryItem(String name, String category, long price, int quantity, LocalDate purchaseDate) {
+        this(ids.incrementAndGet(), name, category, price, quantity, purchaseDate);
+    }
+
+    GroceryItem(long id, String name, String category, long price, int quantity, LocalDate purchaseDate) {
+        this.id = id;
+        this.name = name;
+        this.category = category;
+        this.price = price;
+        this.quantity = quantity;
+        this.purchaseDate = purchaseDate;
+    }
+
+    public long getId() { return id; }
+    public String getName() { return name; }
+    public String getCategory() { return category; }
+    public long getPrice() { return price; }
+    public int getQuantity() { return quantity; }
+    public LocalDate getPurchaseDate() { return purchaseDate; }
+
+    @Override
+    public String toString() {
+        return String.format("%s (%s) - $%s x %d = $%s on %s",
+                name, category, Money.format(price), quantity, Money.format(Money.multiply(price, quantity)),
+                purchaseDate.toString());
+    }
+}
+
+class Budget {
+    static final int MAX_WEEKS = 5; // weeks are days 1-7, 8-14, ... so a month has 4 or 5
+
+    private long monthlySalary;
+    private long budgetLimit;
+    private long currentExpenses;
+    private Map<String, long[]> categoryExpenses; // one-element totals, updated in place
+    // Aggregates are maintained as expenses post, so reports never rescan expense lists
+    private YearMonth period; // month the weekly buckets belong to
+    private long[] weeklyExpenses; // store actual weekly spending, index week - 1
+    private final LongLongHashMap dailyExpenses; // epoch day -> spent
+    private final LongLongHashMap monthlyExpenses; // epoch month -> spent
+
+    public Budget() {
+        this.monthlySalary = 0;
+        this.budgetLimit = 0;
+        this.currentExpenses = 0;
+        this.categoryExpenses = new HashMap<>();
+        this.period = YearMonth.now();
+        this.weeklyExpenses = new long[MAX_WEEKS]; // all weeks start with 0 spent
+        this.dailyExpenses = new LongLongHashMap();
+        this.monthlyExpenses = new LongLongHashMap();
+    }
+
+    public long getMonthlySalary() { return monthlySalary; }
+    public void setMonthlySalary(long monthlySalary) { this.monthlySalary = monthlySalary; }
+
+    public long getBudgetLimit() { return budgetLimit; }
+    public void setBudgetLimit(long budgetLimit) { this.budgetLimit = budgetLimit; }
+
+    public long getCurrentExpenses() { return currentExpenses; }
+
+    // The month the weekly figures are for: the current one, unless expenses were already
+    // dated in a later one. The buckets roll only as expenses post, so a month nothing has
+    // posted in yet reads as empty weeks rather than the last month's.
+    public YearMonth getPeriod() {
+        YearMonth now = YearMonth.now();
+        return now.isAfter(period) ? now : period;
+    }
+
+    public int getWeeksInPeriod() {
+        return (getPeriod().lengthOfMonth() + 6) / 7;
+    }
+
+    public static int weekOfMonth(LocalDate date) {
+        return (date.getDayOfMonth() - 1) / 7 + 1;
+    }
+
+    static long epochMonth(YearMonth month) {
+        return month.getYear() * 12L + month.getMonthValue() - 1;
+    }
+
+    static YearMonth fromEpochMonth(long epochMonth) {
+        return YearMonth.of((int) (epochMonth / 12), (int) (epochMonth % 12) + 1);
+    }
+
+    public void addExpense(long amount) {
+        this.currentExpenses = Money.add(currentExpenses, amount);
+    }
+
+    // Expense with a known date: also lands in its day, month and (for the period) week
+    public void addExpense(long amount, LocalDate date) {
+        addExpense(amount);
+        postDated(date, amount);
+    }
+
+    public void addCategoryExpense(String category, long amount) {
+        addCategoryExpense(category, amount, LocalDate.now());
+    }
+
+    public void addCategoryExpense(String category, long amount, LocalDate date) {
+        long[] total = categoryExpenses.get(category);
+        if (total == null) {
+            total = new long[1];
+            categoryExpenses.put(category, total);
+        }
+        total[0] = Money.add(total[0], amount);
+        addExpense(amount, date);
+    }
+
+    private void postDated(LocalDate date, long amount) {
+        YearMonth month = YearMonth.from(date);
+        rollTo(month);
+        dailyExpenses.add(date.toEpochDay(), amount);
+        monthlyExpenses.add(epochMonth(month), amount);
+        if (month.equals(period)) {
+            int week = weekOfMonth(date);
+            weeklyExpenses[week - 1] = Money.add(weeklyExpenses[week - 1], amount);
+        }
+    }
+
+    // A new month starts with empty weekly buckets; dated and weekly expenses roll to their
+    // month before posting
+    private void rollTo(YearMonth month) {
+        if (month.isAfter(period)) {
+            period = month;
+            Arrays.fill(weeklyExpenses, 0);
+        }
+    }
+
+    // Copy for reports; the posting path never boxes
+    public Map<String, Long> getCategoryExpenses() {
+        Map<String, Long> totals = new HashMap<>();
+        for (Map.Entry<String, long[]> entry : categoryExpenses.entrySet()) {
+            totals.put(entry.getKey(), entry.getValue()[0]);
+        }
+        return totals;
+    }
+
+    public long getDailyExpense(LocalDate date) {
+        return dailyExpenses.get(date.toEpochDay());
+    }
+
+    public long getMonthlyExpense(YearMonth month) {
+        return monthlyExpenses.get(epochMonth(month));
+    }
+
+    LongLongHashMap dailyExpenses() { return dailyExpenses; }
+    LongLongHashMap monthlyExpenses() { return monthlyExpenses; }
+
+    // Restores a snapshot total without counting it again in currentExpenses
+    void restoreCategoryExpense(String category, long amount) {
+        categoryExpenses.put(category, new long[] {amount});
+    }
+
+    void restorePeriod(YearMonth period) {
+        this.period = period;
+    }
+
+    void restoreWeeklyExpense(int week, long amount) {
+        weeklyExpenses[week - 1] = amount;
+    }
+
+    // Day and month history is kept; only the current period starts over
+    public void resetExpenses() {
+        this.currentExpenses = 0;
+        this.categoryExpenses.clear();
+        this.period = YearMonth.now();
+        Arrays.fill(weeklyExpenses, 0);
+    }
+
+    public long getRemainingBudget() {
+        return Money.subtract(budgetLimit, currentExpenses);
+    }
+
+    public boolean isBudgetExceeded() {
+        return currentExpenses > budgetLimit;
+    }
+
+    public boolean isBudgetNearExceed() {
+        return currentExpenses >= Money.percent(budgetLimit, 80);
+    }
+
+    // Weekly allocation should be based on Budget Limit (not salary), split by the days
+    // each week of the period covers; index week - 1, and the weeks sum to the limit exactly
+    public long[] getWeeklyBudgetAllocation() {
+        int days = getPeriod().lengthOfMonth();
+        long[] weeklyBudget = new long[getWeeksInPeriod()];
+        for (int i = 0; i < weeklyBudget.length; i++) {
+            int endDay = Math.min(days, (i + 1) * 7);
+            weeklyBudget[i] = budgetLimit * endDay / days - budgetLimit * (i * 7) / days;
+        }
+        return weeklyBudget;
+    }
+
+    // Record actual money spent in a specific week of the period
+    public void addWeeklyExpense(int week, long amount) throws InvalidInputException {
+        addWeeklyExpense(YearMonth.now(), week, amount);
+    }
+
+    // Same for a week of the given month, which the journal records with the expense: it
+    // lands in the weekly buckets only while that month is the period, like a dated expense
+    public void addWeeklyExpense(YearMonth month, int week, long amount) throws InvalidInputException {
+        checkWeek(month, week);
+        rollTo(month);
+        if (month.equals(period)) {
+            weeklyExpenses[week - 1] = Money.add(weeklyExpenses[week - 1], amount);
+        }
+        monthlyExpenses.add(epochMonth(month), amount);
+        addExpense(amount);
+    }
+
+    static void checkWeek(YearMonth month, int week) throws InvalidInputException {
+        int weeks = (month.lengthOfMonth() + 6) / 7;
+        if (week < 1 || week > weeks) {
+            throw new InvalidInputException("Invalid week! Please enter between 1 and " + weeks + ".");
+        }
+    }
+
+    public long getWeeklyExpense(int week) {
+        return getPeriod().equals(period) ? weeklyExpenses[week - 1] : 0;
+    }
+}
+
+// Open-addressing long -> long map of money totals, keyed by epoch day or month in the
+// budget aggregates. Posting adds in place without boxing; missing keys read as 0.
+class LongLongHashMap {
+    private long[] keys;
+    private long[] values;
+    private boolean[] used;
+    private int size;
+
+    public LongLongHashMap() {
+        this(16);
+    }
+
+    public LongLongHashMap(int capacity) {
+        int slots = Integer.highestOneBit(Math.max(4, capacity) - 1) << 1;
+        keys = new long[slots];
+        values = new long[slots];
+        used = new boolean[slots];
+    }
+
+    public long get(long key) {
+        int slot = slotOf(key);
+        return used[slot] ? values[slot] : 0;
+    }
+
+    public long add(long key, long amount) {
+        int slot = slotOf(key);
+        if (!used[slot]) {
+            if ((size + 1) * 2 > keys.length) {
+                grow();
+                slot = slotOf(key);
+            }
+            used[slot] = true;
+            keys[slot] = key;
+            size++;
+        }
+        values[slot] = Money.add(values[slot], amount);
+        return values[slot];
+    }
+
+    public void put(long key, long value) {
+        int slot = slotOf(key);
+        if (!used[slot]) {
+            if ((size + 1) * 2 > keys.length) {
+                grow();
+                slot = slotOf(key);
+            }
+            used[slot] = true;
+            keys[slot] = key;
+            size++;
+        }
+        values[slot] = value;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    interface EntryConsumer {
+        void accept(long key, long value);
+    }
+
+    // Entries in slot order, for merging one map into another
+    public void forEach(EntryConsumer action) {
+        for (int slot = 0; slot < keys.length; slot++) {
+            if (used[slot]) {
+                action.accept(keys[slot], values[slot]);
+            }
+        }
+    }
+
+    // Keys in ascending order, for chronological reports and snapshots
+    public long[] sortedKeys() {
+        long[] result = new long[size];
+        int n = 0;
+        for (int slot = 0; slot < keys.length; slot++) {
+            if (used[slot]) {
+                result[n++] = keys[slot];
+            }
+        }
+        Arrays.sort(result);
+        return result;
+    }
+
+    private int slotOf(long key) {
+        int mask = keys.length - 1;
+        long h = key * 0x9E3779B97F4A7C15L;
+        int slot = (int) (h ^ (h >>> 32)) & mask;
+        while (used[slot] && keys[slot] != key) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    private void grow() {
+        long[] oldKeys = keys;
+        long[] oldValues = values;
+        boolean[] oldUsed = used;
+        keys = new long[oldKeys.length * 2];
+        values = new long[oldKeys.length * 2];
+        used = new boolean[oldKeys.length * 2];
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldUsed[i]) {
+                int slot = slotOf(oldKeys[i]);
+                used[slot] = true;
+                keys[slot] = oldKeys[i];
+                values[slot] = oldValues[i];
+            }
+        }
+    }
+}
+
+// Open-addressing long -> int map for dense ids. Lookups take no lock and may run while
+// one writer inserts: a slot's value is written before its key is published, and a grown
+// table is published only once it is complete. Values are fixed once inserted and must
+// not be negative; an absent key reads as -1.
+class LongIntHashMap {
+    private static final class Table {
+        final AtomicLongArray keys; // 0 marks an empty slot
+        final int[] values;
+
+        Table(int slots) {
+            keys = new AtomicLongArray(slots);
+            values = new int[slots];
+        }
+    }
+
+    private volatile Table table;
+    private volatile int zeroValue = -1; // key 0 is the empty marker, so it is kept here
+    private int size;
+
+    public LongIntHashMap() {
+        this(16);
+    }
+
+    public LongIntHashMap(int capacity) {
+        table = new Table(Integer.highestOneBit(Math.max(4, capacity) - 1) << 1);
+    }
+
+    public int get(long key) {
+        if (key == 0) {
+            return zeroValue;
+        }
+        Table t = table;
+        int mask = t.values.length - 1;
+        int slot = hash(key) & mask;
+        long k;
+        while ((k = t.keys.get(slot)) != 0) {
+            if (k == key) {
+                return t.values[slot];
+            }
+            slot = (slot + 1) & mask;
+        }
+        return -1;
+    }
+
+    // Returns the value already mapped, or -1 after mapping the given one
+    public synchronized int putIfAbsent(long key, int value) {
+        if (key == 0) {
+            if (zeroValue >= 0) {
+                return zeroValue;
+            }
+            zeroValue = value;
+            size++;
+            return -1;
+        }
+        Table t = table;
+        int slot = slotOf(t, key);
+        if (t.keys.get(slot) == key) {
+            return t.values[slot];
+        }
+        if ((size + 1) * 2 > t.values.length) {
+            t = grow(t);
+            slot = slotOf(t, key);
+        }
+        t.values[slot] = value;
+        t.keys.set(slot, key);
+        size++;
+        return -1;
+    }
+
+    public synchronized int size() {
+        return size;
+    }
+
+    private static int hash(long key) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+
+    private static int slotOf(Table t, long key) {
+        int mask = t.values.length - 1;
+        int slot = hash(key) & mask;
+        long k;
+        while ((k = t.keys.get(slot)) != 0 && k != key) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    private Table grow(Table old) {
+        Table t = new Table(old.values.length * 2);
+        for (int i = 0; i < old.values.length; i++) {
+            long key = old.keys.get(i);
+            if (key != 0) {
+                int slot = slotOf(t, key);
+                t.values[slot] = old.values[i];
+                t.keys.set(slot, key);
+            }
+        }
+        table = t;
+        return t;
+    }
+}
+
+class Donation {
+    private String charityName;
+    private String charityType;
+    private long amount;
+    private LocalDate donationDate;
+    private String paymentMethod;
+    private boolean taxDeductible;
+    private String receiptId;
+    private String description;
+
+    public Donation(String charityName, String charityType, long amount, LocalDate donationDate,
+                    String paymentMethod, boolean taxDeductible, String receiptId, String description) {
+        this.charityName = charityName;
+        this.charityType = charityType;
+        this.amount = amount;
+        this.donationDate = donationDate;
+        this.paymentMethod = paymentMethod;
+        this.taxDeductible = taxDeductible;
+        this.receiptId = receiptId;
+        this.description = description;
+    }
+
+    // Getters
+    public String getCharityName() { return charityName; }
+    public String getCharityType() { return charityType; }
+    public long getAmount() { return amount; }
+    public LocalDate getDonationDate() { return donationDate; }
+    public String getPaymentMethod() { return paymentMethod; }
+    public boolean isTaxDeductible() { return taxDeductible; }
+    public String getReceiptId() { return receiptId; }
+    public String getDescription() { return description; }
+
+    @Override
+    public String toString() {
+        return String.format("%s: $%s on %s (%s)", charityName, Money.format(amount), donationDate.toString(), charityType);
+    }
+}
+
+class DonationGoal {
+    private double targetPercentage;
+    private String timeFrame;
+    private LocalDate startDate;
+    private LocalDate endDate;
+    private long amountDonated;
+    private String preferredCategories;
+
+    public DonationGoal(double targetPercentage, String timeFrame, LocalDate startDate,
+                        LocalDate endDate, String preferredCategories) {
+        this.targetPercentage = targetPercentage;
+        this.timeFrame = timeFrame;
+        this.startDate = startDate;
+        this.endDate = endDate;
+        this.amountDonated = 0;
+        this.preferredCategories = preferredCategories;
+    }
+
+    // Getters and setters
+    public double getTargetPercentage() { return targetPercentage; }
+    public String getTimeFrame() { return timeFrame; }
+    public LocalDate getStartDate() { return startDate; }
+    public LocalDate getEndDate() { return endDate; }
+    public long getAmountDonated() { return amountDonated; }
+    public String getPreferredCategories() { return preferredCategories; }
+
+    public void addDonation(long amount) {
+        this.amountDonated = Money.add(amountDonated, amount);
+    }
+
+    public long getTargetAmount(long income) {
+        return Money.percent(income, targetPercentage);
+    }
+
+    public double getProgressPercentage(long income) {
+        long target = getTargetAmount(income);
+        if (target == 0) return 0;
+        return (amountDonated * 100.0) / target;
+    }
+
+    public boolean isGoalAchieved(long income) {
+        return amountDonated >= getTargetAmount(income);
+    }
+}
+
+// Money is carried as long minor units (cents) on every posting path, so arithmetic is
+// exact and allocation-free. This class only holds conversions and overflow-checked math.
+final class Money {
+    private static final long MINOR_PER_MAJOR = 100;
+
+    private Money() {}
+
+    // For literals and sample data; user input goes through parse()
+    public static long of(double major) {
+        return Math.round(major * MINOR_PER_MAJOR);
+    }
+
+    public static long parse(String text) {
+        return new BigDecimal(text.trim()).setScale(2, RoundingMode.HALF_UP)
+                .unscaledValue().longValueExact();
+    }
+
+    public static long add(long a, long b) {
+        return Math.addExact(a, b);
+    }
+
+    public static long subtract(long a, long b) {
+        return Math.subtractExact(a, b);
+    }
+
+    public static long multiply(long amount, int quantity) {
+        return Math.multiplyExact(amount, quantity);
+    }
+
+    public static long percent(long amount, double percentage) {
+        return Math.round(amount * percentage / 100);
+    }
+
+    public static String format(long minor) {
+        long abs = Math.abs(minor);
+        long cents = abs % MINOR_PER_MAJOR;
+        return (minor < 0 ? "-" : "") + (abs / MINOR_PER_MAJOR) + (cents < 10 ? ".0" : ".") + cents;
+    }
+}
+
+// Service Classes
+// Passwords are stored as "pbkdf2$<iterations>$<salt>$<hash>" (PBKDF2-HMAC-SHA256, Base64).
+// Verification runs on a small bounded pool so a login storm queues there instead of taking
+// every core from posting threads, and a successful login is remembered for a few minutes
+// so re-authenticating within a session does not pay for the slow hash again.
+class SecurityService {
+    static final int ITERATIONS = 120_000;
+    private static final String PREFIX = "pbkdf2$";
+    private static final int SALT_BYTES = 16;
+    private static final int HASH_BITS = 256;
+    private static final int VERIFY_THREADS = Math.max(1, Runtime.getRuntime().availableProcessors() / 2);
+    private static final int VERIFY_QUEUE = 256;
+    private static final long SESSION_TTL_NANOS = TimeUnit.MINUTES.toNanos(5);
+    private static final int MAX_SESSIONS = 100_000;
+
+    private static final SecureRandom random = new SecureRandom();
+    private static final ThreadPoolExecutor verifier = new ThreadPoolExecutor(
+            VERIFY_THREADS, VERIFY_THREADS, 0, TimeUnit.MILLISECONDS,
+            new ArrayBlockingQueue<>(VERIFY_QUEUE), task -> {
+                Thread thread = new Thread(task, "password-verifier");
+                thread.setDaemon(true);
+                return thread;
+            });
+    // account number -> digest of (stored hash, password) and expiry; a fast digest only ever
+    // held in memory, and a changed stored hash never matches an old entry
+    private static final ConcurrentHashMap<String, VerifiedSession> sessions = new ConcurrentHashMap<>();
+    private static final ThreadLocal<MessageDigest> sha256 = ThreadLocal.withInitial(() -> {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    });
+
+    private static final class VerifiedSession {
+        final byte[] digest;
+        final long expiresAt;
+
+        VerifiedSession(byte[] digest, long expiresAt) {
+            this.digest = digest;
+            this.expiresAt = expiresAt;
+        }
+    }
+
+    public static String hashPassword(String password) {
+        byte[] salt = new byte[SALT_BYTES];
+        random.nextBytes(salt);
+        Base64.Encoder base64 = Base64.getEncoder();
+        return PREFIX + ITERATIONS + "$" + base64.encodeToString(salt) + "$"
+                + base64.encodeToString(pbkdf2(password, salt, ITERATIONS));
+    }
+
+    // Blocking check through the verification pool, answered from the session cache when
+    // this account verified the same password recently
+    public static boolean verifyPassword(String accountNumber, String password, String stored)
+            throws InvalidUserException {
+        byte[] digest = sessionDigest(password, stored);
+        VerifiedSession session = sessions.get(accountNumber);
+        if (session != null) {
+            if (System.nanoTime() - session.expiresAt >= 0) {
+                sessions.remove(accountNumber, session);
+            } else if (MessageDigest.isEqual(session.digest, digest)) {
+                return true;
+            }
+        }
+        Future<Boolean> result;
+        try {
+            result = verifier.submit(() -> matches(password, stored));
+        } catch (RejectedExecutionException e) {
+            throw new InvalidUserException("Too many logins in progress. Please try again shortly.");
+        }
+        boolean valid;
+        try {
+            valid = result.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InvalidUserException("Login interrupted.");
+        } catch (ExecutionException e) {
+            throw new IllegalStateException(e.getCause());
+        }
+        if (valid) {
+            remember(accountNumber, digest);
+        }
+        return valid;
+    }
+
+    // Direct check on the calling thread
+    public static boolean matches(String password, String stored) {
+        if (!stored.startsWith(PREFIX)) {
+            return MessageDigest.isEqual(stored.getBytes(StandardCharsets.UTF_8),
+                    encrypt(password).getBytes(StandardCharsets.UTF_8));
+        }
+        String[] parts = stored.split("\\$");
+        if (parts.length != 4) {
+            return false;
+        }
+        Base64.Decoder base64 = Base64.getDecoder();
+        byte[] expected = base64.decode(parts[3]);
+        return MessageDigest.isEqual(expected, pbkdf2(password, base64.decode(parts[2]), Integer.parseInt(parts[1])));
+    }
+
+    public static boolean needsRehash(String stored) {
+        return !stored.startsWith(PREFIX + ITERATIONS + "$");
+    }
+
+    // Hashes on the verification pool and hands the result to the callback there; when the
+    // pool is saturated nothing happens, so upgrades never add unbounded hashing work
+    static void rehashLater(String password, Consumer<String> callback) {
+        try {
+            verifier.execute(() -> callback.accept(hashPassword(password)));
+        } catch (RejectedExecutionException e) {
+            // upgraded at a later login
+        }
+    }
+
+    private static void remember(String accountNumber, byte[] digest) {
+        if (sessions.size() >= MAX_SESSIONS) {
+            long now = System.nanoTime();
+            sessions.values().removeIf(session -> now - session.expiresAt >= 0);
+            if (sessions.size() >= MAX_SESSIONS) {
+                return; // still full of live sessions: verify the slow way next time
+            }
+        }
+        sessions.put(accountNumber, new VerifiedSession(digest, System.nanoTime() + SESSION_TTL_NANOS));
+    }
+
+    private static byte[] sessionDigest(String password, String stored) {
+        MessageDigest digest = sha256.get();
+        digest.update(stored.getBytes(StandardCharsets.UTF_8));
+        digest.update((byte) 0);
+        return digest.digest(password.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static byte[] pbkdf2(String password, byte[] salt, int iterations) {
+        PBEKeySpec spec = new PBEKeySpec(password.toCharArray(), salt, iterations, HASH_BITS);
+        try {
+            return SecretKeyFactory.getInstance("PBKDF2WithHmacSHA256").generateSecret(spec).getEncoded();
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException(e);
+        } finally {
+            spec.clearPassword();
+        }
+    }
+
+    // Legacy encoding, only used to recognise passwords stored before hashing
+    public static String encrypt(String plainText) {
+        try {
+            // Simple encryption for console app
+            return Base64.getEncoder().encodeToString(plainText.getBytes());
+        } catch (Exception e) {
+            return plainText; // Fallback
+        }
+    }
+
+    public static String decrypt(String encryptedText) {
+        try {
+            return new String(Base64.getDecoder().decode(encryptedText));
+        } catch (Exception e) {
+            return encryptedText; // Fallback
+        }
+    }
+}
+
+// In-process bus for ledger events. Synchronous subscribers run on the publishing thread
+// before publish returns, which suits cheap read models that must be current at once.
+// Asynchronous subscribers each get a bounded queue drained in publish order by their own
+// thread; a publisher that finds the queue full waits for room, so a slow consumer
+// throttles writers rather than buffering without limit. An event published while serving a
+// session carries that session's output, so what an async subscriber prints for it reaches
+// the same session.
+class LedgerEvents {
+    static final class TransactionPosted {
+        final User user;
+        final PostingResult result;
+
+        TransactionPosted(User user, PostingResult result) {
+            this.user = user;
+            this.result = result;
+        }
+    }
+
+    static final class DonationRecorded {
+        final User user;
+        final Donation donation;
+
+        DonationRecorded(User user, Donation donation) {
+            this.user = user;
+            this.donation = donation;
+        }
+    }
+
+    static final class GroceryAdded {
+        final User user;
+        final GroceryItem item;
+
+        GroceryAdded(User user, GroceryItem item) {
+            this.user = user;
+            this.item = item;
+        }
+    }
+
+    static final class GroceryRemoved {
+        final User user;
+        final long itemId;
+
+        GroceryRemoved(User user, long itemId) {
+            this.user = user;
+            this.itemId = itemId;
+        }
+    }
+
+    static final class ReminderAdded {
+        final User user;
+        final Reminder reminder;
+
+        ReminderAdded(User user, Reminder reminder) {
+            this.user = user;
+            this.reminder = reminder;
+        }
+    }
+
+    static final class ReminderPaid {
+        final User user;
+        final long reminderId;
+
+        ReminderPaid(User user, long reminderId) {
+            this.user = user;
+            this.reminderId = reminderId;
+        }
+    }
+
+    static final class BudgetSet {
+        final User user;
+        final long salary;
+        final long limit;
+
+        BudgetSet(User user, long salary, long limit) {
+            this.user = user;
+            this.salary = salary;
+            this.limit = limit;
+        }
+    }
+
+    static final class WeeklyExpenseRecorded {
+        final User user;
+        final YearMonth month;
+        final int week;
+        final long amount;
+
+        WeeklyExpenseRecorded(User user, YearMonth month, int week, long amount) {
+            this.user = user;
+            this.month = month;
+            this.week = week;
+            this.amount = amount;
+        }
+    }
+
+    static final class CategoryExpenseRecorded {
+        final User user;
+        final String category;
+        final long amount;
+        final LocalDate date;
+
+        CategoryExpenseRecorded(User user, String category, long amount, LocalDate date) {
+            this.user = user;
+            this.category = category;
+            this.amount = amount;
+            this.date = date;
+        }
+    }
+
+    static final class PasswordRehashed {
+        final User user;
+        final String hash;
+
+        PasswordRehashed(User user, String hash) {
+            this.user = user;
+            this.hash = hash;
+        }
+    }
+
+    static final class DonationGoalSet {
+        final User user;
+        final DonationGoal goal;
+
+        DonationGoalSet(User user, DonationGoal goal) {
+            this.user = user;
+            this.goal = goal;
+        }
+    }
+
+    // Every event that changes a user's own state (everything but postings, which the
+    // account applies itself). The journal records these, so a user can be rebuilt from it.
+    static final Set<Class<?>> USER_STATE = Set.of(DonationRecorded.class, GroceryAdded.class,
+            GroceryRemoved.class, ReminderAdded.class, ReminderPaid.class, BudgetSet.class,
+            WeeklyExpenseRecorded.class, CategoryExpenseRecorded.class, DonationGoalSet.class, PasswordRehashed.class);
+
+    private interface Sink {
+        void deliver(Object event);
+    }
+
+    private static final Sink[] NONE = new Sink[0];
+    private static final CompletableFuture<Void> DURABLE = CompletableFuture.completedFuture(null);
+    private static final ConcurrentHashMap<Class<?>, Sink[]> sinks = new ConcurrentHashMap<>();
+
+    // Journaled ahead of the change, which is then made by applying the event, so live users
+    // and users replayed from the journal cannot diverge. The publisher does not wait for the
+    // fsync; the future completes once the record is durable.
+    private static CompletableFuture<Void> record(Object event) {
+        TransactionJournal journal = Account.currentJournal();
+        if (journal == null) {
+            apply(event);
+            return DURABLE;
+        }
+        long seq = journal.logUserEvent(System.currentTimeMillis(), event);
+        apply(event);
+        return journal.whenDurable(seq);
+    }
+
+    // Budget and donation goal are updated along with the lists; both are O(1)
+    static void apply(Object event) {
+        if (event instanceof DonationRecorded) {
+            DonationRecorded recorded = (DonationRecorded) event;
+            Donation donation = recorded.donation;
+            recorded.user.getDonations().add(donation);
+            recorded.user.getBudget().addExpense(donation.getAmount(), donation.getDonationDate());
+            DonationGoal goal = recorded.user.getDonationGoal();
+            if (goal != null) {
+                goal.addDonation(donation.getAmount());
+            }
+        } else if (event instanceof GroceryAdded) {
+            GroceryAdded added = (GroceryAdded) event;
+            added.user.getGroceryItems().add(added.item);
+            added.user.getBudget().addExpense(added.item.getPrice(), added.item.getPurchaseDate());
+        } else if (event instanceof GroceryRemoved) {
+            // Items are found by id, so an item that is already gone changes nothing
+            GroceryRemoved removed = (GroceryRemoved) event;
+            List<GroceryItem> items = removed.user.getGroceryItems();
+            for (int i = 0; i < items.size(); i++) {
+                if (items.get(i).getId() == removed.itemId) {
+                    GroceryItem item = items.remove(i);
+                    removed.user.getBudget().addExpense(-item.getPrice(), item.getPurchaseDate());
+                    break;
+                }
+            }
+        } else if (event instanceof ReminderAdded) {
+            ReminderAdded added = (ReminderAdded) event;
+            added.user.getReminders().add(added.reminder); // the reminder service schedules it
+        } else if (event instanceof ReminderPaid) {
+            ReminderPaid paid = (ReminderPaid) event;
+            for (Reminder reminder : paid.user.getReminders()) {
+                if (reminder.getId() == paid.reminderId) {
+                    reminder.markAsPaid();
+                    break;
+                }
+            }
+        } else if (event instanceof BudgetSet) {
+            BudgetSet set = (BudgetSet) event;
+            set.user.getBudget().setMonthlySalary(set.salary);
+            set.user.getBudget().setBudgetLimit(set.limit);
+        } else if (event instanceof WeeklyExpenseRecorded) {
+            WeeklyExpenseRecorded recorded = (WeeklyExpenseRecorded) event;
+            try {
+                recorded.user.getBudget().addWeeklyExpense(recorded.month, recorded.week, recorded.amount);
+            } catch (InvalidInputException e) {
+                throw new IllegalStateException(e); // the week is checked before the event is published
+            }
+        } else if (event instanceof CategoryExpenseRecorded) {
+            CategoryExpenseRecorded recorded = (CategoryExpenseRecorded) event;
+            recorded.user.getBudget().addCategoryExpense(recorded.category, recorded.amount, recorded.date);
+        } else if (event instanceof DonationGoalSet) {
+            DonationGoalSet set = (DonationGoalSet) event;
+            set.user.setDonationGoal(set.goal);
+        } else if (event instanceof PasswordRehashed) {
+            PasswordRehashed rehashed = (PasswordRehashed) event;
+            rehashed.user.setPasswordHash(rehashed.hash);
+        }
+    }
+
+    public static <E> void subscribe(Class<E> type, Consumer<? super E> subscriber) {
+        add(type, event -> subscriber.accept(type.cast(event)));
+    }
+
+    // Starts a consumer thread for the subscriber; capacity bounds the events waiting for it
+    public static <E> AsyncSubscription subscribeAsync(Class<E> type, Consumer<? super E> subscriber,
+                                                       int capacity, String name) {
+        AsyncSubscription subscription = new AsyncSubscription(type,
+                event -> subscriber.accept(type.cast(event)), capacity, name);
+        add(type, subscription);
+        return subscription;
+    }
+
+    // Lets publishers skip building events nobody listens to
+    public static boolean hasSubscribers(Class<?> type) {
+        return sinks.getOrDefault(type, NONE).length > 0;
+    }
+
+    // A user-state event is recorded and applied before any subscriber sees it. The future
+    // completes once it is durable (at once for other events); console flows that confirm a
+    // change wait on it, bulk callers need not.
+    public static CompletableFuture<Void> publish(Object event) {
+        CompletableFuture<Void> durable = USER_STATE.contains(event.getClass()) ? record(event) : DURABLE;
+        for (Sink sink : sinks.getOrDefault(event.getClass(), NONE)) {
+            sink.deliver(event);
+        }
+        return durable;
+    }
+
+    private static void add(Class<?> type, Sink sink) {
+        sinks.compute(type, (key, current) -> {
+            Sink[] grown = Arrays.copyOf(current == null ? NONE : current, current == null ? 1 : current.length + 1);
+            grown[grown.length - 1] = sink;
+            return grown;
+        });
+    }
+
+    private static void remove(Class<?> type, Sink sink) {
+        sinks.computeIfPresent(type, (key, current) -> {
+            List<Sink> kept = new ArrayList<>(Arrays.asList(current));
+            kept.remove(sink);
+            return kept.toArray(NONE);
+        });
+    }
+
+    static final class AsyncSubscription implements Sink {
+        private static final Object STOP = new Object();
+
+        // A queued event published from a session thread, with the session's output
+        private static final class Routed {
+            final Object event;
+            final PrintStream out;
+
+            Routed(Object event, PrintStream out) {
+                this.event = event;
+                this.out = out;
+            }
+        }
+
+        private final Class<?> type;
+        private final Consumer<Object> subscriber;
+        private final ArrayBlockingQueue<Object> queue;
+        private final Thread worker;
+        private final String name;
+        private boolean closed;
+
+        private AsyncSubscription(Class<?> type, Consumer<Object> subscriber, int capacity, String name) {
+            this.type = type;
+            this.subscriber = subscriber;
+            this.queue = new ArrayBlockingQueue<>(capacity);
+            this.name = name;
+            this.worker = new Thread(this::run, "events-" + name);
+            this.worker.setDaemon(true);
+            this.worker.start();
+        }
+
+        // Blocks while the queue is full
+        @Override
+        public void deliver(Object event) {
+            PrintStream out = SessionOutput.bound();
+            Object item = out == null ? event : new Routed(event, out);
+            boolean interrupted = false;
+            while (true) {
+                try {
+                    queue.put(item);
+                    break;
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        public int backlog() {
+            return queue.size();
+        }
+
+        // Stops taking events, delivers the ones already queued, then stops the thread
+        public synchronized void close() {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            remove(type, this);
+            deliver(STOP);
+            try {
+                worker.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        private void run() {
+            while (true) {
+                Object event;
+                try {
+                    event = queue.take();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                PrintStream out = null;
+                if (event instanceof Routed) {
+                    out = ((Routed) event).out;
+                    event = ((Routed) event).event;
+                }
+                if (event == STOP) {
+                    return;
+                }
+                if (out != null) {
+                    SessionOutput.bind(out);
+                }
+                try {
+                    subscriber.accept(event);
+                } catch (RuntimeException e) {
+                    System.err.println("Event subscriber " + name + " failed: " + e);
+                } finally {
+                    if (out != null) {
+                        SessionOutput.unbind();
+                    }
+                }
+            }
+        }
+    }
+}
+
+class AccountService {
+    private static volatile ShardedUserRegistry registry;
+    private static volatile PostingPipeline pipeline;
+    private static volatile Executor asyncExecutor = ForkJoinPool.commonPool();
+
+    // Once set, single postings are applied by the registry's shard workers; batches still
+    // lock their accounts directly, since they span shards and must stay all-or-nothing
+    public static void useRegistry(ShardedUserRegistry shardedRegistry) {
+        registry = shardedRegistry;
+    }
+
+    // Pipeline mode takes precedence: every single posting goes through its ring buffer
+    public static void usePipeline(PostingPipeline postingPipeline) {
+        pipeline = postingPipeline;
+    }
+
+    // Executor the async postings are validated and applied on, and their futures complete on
+    public static void useAsyncExecutor(Executor executor) {
+        asyncExecutor = executor;
+    }
+
+    // idempotencyKey may be null; a repeated key returns (and prints) the original result
+    public static PostingResult deposit(User user, long amount, String description) {
+        return deposit(user, amount, description, null);
+    }
+
+    public static PostingResult deposit(User user, long amount, String description, String idempotencyKey) {
+        PostingResult result;
+        ShardedUserRegistry shards = registry;
+        if (pipeline != null) {
+            try {
+                result = viaPipeline(Posting.DEPOSIT, user.getAccount(), null, amount, description, idempotencyKey);
+            } catch (InsufficientBalanceException e) {
+                throw new IllegalStateException(e); // deposits are never rejected
+            }
+        } else if (shards == null) {
+            result = user.getAccount().deposit(amount, description, idempotencyKey);
+        } else {
+            try {
+                result = await(shards.deposit(user, amount, description, idempotencyKey));
+            } catch (InsufficientBalanceException | InvalidUserException e) {
+                throw new IllegalStateException(e); // a deposit to a known account cannot fail
+            }
+        }
+        posted(user, result);
+        System.out.println("Deposit successful. New balance: $" + Money.format(result.getBalanceAfter()));
+        return result;
+    }
+
+    public static PostingResult withdraw(User user, long amount, String description)
+            throws InsufficientBalanceException {
+        return withdraw(user, amount, description, null);
+    }
+
+    public static PostingResult withdraw(User user, long amount, String description, String idempotencyKey)
+            throws InsufficientBalanceException {
+        PostingResult result;
+        ShardedUserRegistry shards = registry;
+        if (pipeline != null) {
+            result = viaPipeline(Posting.WITHDRAW, user.getAccount(), null, amount, description, idempotencyKey);
+        } else if (shards == null) {
+            result = user.getAccount().withdraw(amount, description, idempotencyKey);
+        } else {
+            try {
+                result = await(shards.withdraw(user, amount, description, idempotencyKey));
+            } catch (InvalidUserException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+        posted(user, result);
+        System.out.println("Withdrawal successful. New balance: $" + Money.format(result.getBalanceAfter()));
+        return result;
+    }
+
+    public static PostingResult transfer(User fromUser, Map<String, User> users,
+                                         String toAccountNumber, long amount, String description)
+            throws InsufficientBalanceException, InvalidUserException {
+        return transfer(fromUser, users, toAccountNumber, amount, description, null);
+    }
+
+    public static PostingResult transfer(User fromUser, Map<String, User> users, String toAccountNumber,
+                                         long amount, String description, String idempotencyKey)
+            throws InsufficientBalanceException, InvalidUserException {
+        // One lookup resolves the recipient; on the live user map it is a primitive id probe
+        User toUser = users.get(toAccountNumber);
+        if (toUser == null) {
+            throw new InvalidUserException("Recipient account not found: " + toAccountNumber);
+        }
+
+        PostingResult result;
+        ShardedUserRegistry shards = registry;
+        if (pipeline != null) {
+            result = viaPipeline(Posting.TRANSFER, fromUser.getAccount(), toUser.getAccount(),
+                    amount, description, idempotencyKey);
+        } else if (shards == null) {
+            result = fromUser.getAccount().transfer(toUser.getAccount(), amount, description, idempotencyKey);
+        } else {
+            result = await(shards.transfer(fromUser, toUser, amount, description, idempotencyKey));
+        }
+        posted(fromUser, result);
+        System.out.println("Transfer successful. New balance: $" + Money.format(result.getBalanceAfter()));
+        return result;
+    }
+
+    // Status-code forms of withdraw and transfer for bulk callers. The posting takes the same
+    // path as withdraw and transfer (ring, shard workers or the account) and publishes the
+    // same event, but a rejection returns Account.INVALID_AMOUNT or INSUFFICIENT_BALANCE
+    // instead of throwing, and nothing is printed.
+    public static byte tryWithdraw(User user, long amount, String description) {
+        return tryPost(Posting.WITHDRAW, user, null, amount, description);
+    }
+
+    public static byte tryTransfer(User fromUser, User toUser, long amount, String description) {
+        return tryPost(Posting.TRANSFER, fromUser, toUser, amount, description);
+    }
+
+    private static byte tryPost(byte type, User user, User recipient, long amount, String description) {
+        if (amount <= 0) {
+            return Account.INVALID_AMOUNT;
+        }
+        Account account = user.getAccount();
+        Account to = recipient == null ? null : recipient.getAccount();
+        PostingResult result;
+        PostingPipeline ring = pipeline;
+        ShardedUserRegistry shards = registry;
+        if (ring != null) {
+            result = ring.tryPost(type, account, to, amount, description);
+        } else if (shards == null) {
+            result = account.tryApply(type, to, amount, description, true);
+        } else {
+            result = shards.tryPost(type, user, recipient, amount, description).join();
+        }
+        if (result == null) {
+            return Account.INSUFFICIENT_BALANCE;
+        }
+        posted(user, result);
+        return Account.APPLIED;
+    }
+
+    private static void posted(User user, PostingResult result) {
+        if (LedgerEvents.hasSubscribers(LedgerEvents.TransactionPosted.class)) {
+            LedgerEvents.publish(new LedgerEvents.TransactionPosted(user, result));
+        }
+    }
+
+    private static PostingResult viaPipeline(byte type, Account account, Account recipient, long amount,
+                                             String description, String idempotencyKey)
+            throws InsufficientBalanceException {
+        PostingPipeline ring = pipeline;
+        if (idempotencyKey == null) {
+            return ring.post(type, account, recipient, amount, description, null);
+        }
+        return IdempotencyCache.POSTINGS.execute(account.getAccountNumber(), idempotencyKey,
+                IdempotencyCache.fingerprint(type, amount, recipient == null ? null : recipient.getAccountNumber()),
+                () -> ring.post(type, account, recipient, amount, description, idempotencyKey));
+    }
+
+    private static PostingResult await(CompletableFuture<PostingResult> pending)
+            throws InsufficientBalanceException, InvalidUserException {
+        try {
+            return pending.join();
+        } catch (CompletionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof InsufficientBalanceException) {
+                throw (InsufficientBalanceException) cause;
+            }
+            if (cause instanceof InvalidUserException) {
+                throw (InvalidUserException) cause;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new IllegalStateException(cause);
+        }
+    }
+
+    // Non-blocking postings for callers that keep many in flight; nothing is printed. The
+    // caller only publishes the request: validation and the ledger update run on the async
+    // executor (or are handed to the shard workers or the ring when those are enabled), the
+    // journal fsyncs whole groups of postings at once, and each future completes on the
+    // executor once its posting is durable. Failures arrive as InvalidInputException,
+    // InvalidUserException or InsufficientBalanceException.
+    public static CompletableFuture<PostingResult> depositAsync(User user, long amount, String description,
+                                                                String idempotencyKey) {
+        return postAsync(Posting.DEPOSIT, user, null, null, amount, description, idempotencyKey);
+    }
+
+    public static CompletableFuture<PostingResult> withdrawAsync(User user, long amount, String description,
+                                                                 String idempotencyKey) {
+        return postAsync(Posting.WITHDRAW, user, null, null, amount, description, idempotencyKey);
+    }
+
+    public static CompletableFuture<PostingResult> transferAsync(User fromUser, Map<String, User> users,
+                                                                 String toAccountNumber, long amount,
+                                                                 String description, String idempotencyKey) {
+        return postAsync(Posting.TRANSFER, fromUser, users, toAccountNumber, amount, description, idempotencyKey);
+    }
+
+    private interface Step {
+        PostingResult run() throws Exception;
+    }
+
+    private static CompletableFuture<PostingResult> postAsync(byte type, User user, Map<String, User> users,
+                                                              String toAccountNumber, long amount,
+                                                              String description, String idempotencyKey) {
+        Executor executor = asyncExecutor;
+        CompletableFuture<PostingResult> reply = new CompletableFuture<>();
+        executor.execute(() -> {
+            CompletableFuture<PostingResult> posted;
+            try {
+                if (amount <= 0) {
+                    throw new InvalidInputException("Amount must be positive.");
+                }
+                User recipient = null;
+                if (type == Posting.TRANSFER) {
+                    recipient = users.get(toAccountNumber);
+                    if (recipient == null) {
+                        throw new InvalidUserException("Recipient account not found: " + toAccountNumber);
+                    }
+                }
+                posted = startAsync(type, user, recipient, amount, description, idempotencyKey);
+            } catch (Exception e) {
+                posted = CompletableFuture.failedFuture(e);
+            }
+            posted.whenCompleteAsync((result, failure) -> {
+                if (failure == null) {
+                    posted(user, result);
+                    reply.complete(result);
+                } else {
+                    reply.completeExceptionally(failure instanceof CompletionException ? failure.getCause() : failure);
+                }
+            }, executor);
+        });
+        return reply;
+    }
+
+    // Hands the posting to whichever mode is active and returns the future of its durable result
+    private static CompletableFuture<PostingResult> startAsync(byte type, User user, User recipient, long amount,
+                                                               String description, String idempotencyKey) {
+        Account account = user.getAccount();
+        ShardedUserRegistry shards = registry;
+        PostingPipeline ring = pipeline;
+        long fingerprint = IdempotencyCache.fingerprint(type, amount,
+                recipient == null ? null : recipient.getAccountNumber());
+        if (ring != null) {
+            Supplier<CompletableFuture<PostingResult>> start = () -> ring.submit(type, account,
+                    recipient == null ? null : recipient.getAccount(), amount, description, idempotencyKey);
+            return idempotencyKey == null ? start.get()
+                    : IdempotencyCache.POSTINGS.executeAsync(account.getAccountNumber(), idempotencyKey,
+                            fingerprint, start);
+        }
+        if (shards != null) {
+            if (type == Posting.DEPOSIT) {
+                return shards.deposit(user, amount, description, idempotencyKey);
+            }
+            if (type == Posting.WITHDRAW) {
+                return shards.withdraw(user, amount, description, idempotencyKey);
+            }
+            return shards.transfer(user, recipient, amount, description, idempotencyKey);
+        }
+        Step step;
+        if (type == Posting.DEPOSIT) {
+            step = () -> account.depositUnsynced(amount, description, idempotencyKey);
+        } else if (type == Posting.WITHDRAW) {
+            step = () -> account.withdrawUnsynced(amount, description, idempotencyKey);
+        } else {
+            step = () -> account.transferUnsynced(recipient.getAccount(), amount, description, idempotencyKey);
+        }
+        Supplier<CompletableFuture<PostingResult>> start = () -> applyThenSync(step);
+        return idempotencyKey == null ? start.get()
+                : IdempotencyCache.POSTINGS.executeAsync(account.getAccountNumber(), idempotencyKey,
+                        fingerprint, start);
+    }
+
+    // Applies the posting now and completes once the journal has fsynced it, without waiting
+    private static CompletableFuture<PostingResult> applyThenSync(Step step) {
+        try {
+            PostingResult result = step.run();
+            TransactionJournal log = Account.currentJournal();
+            if (log == null || result.getJournalSeq() == 0) {
+                return CompletableFuture.completedFuture(result);
+            }
+            return log.whenDurable(result.getJournalSeq()).thenApply(ignored -> result);
+        } catch (Exception e) {
+            return CompletableFuture.failedFuture(e);
+        }
+    }
+
+    public static void searchTransactions(User user, String query, int limit) {
+        List<Transaction> matches = user.getAccount().searchTransactions(query, limit);
+        System.out.println("\n" + ConsoleColors.CYAN_BOLD + "=== Transactions matching \"" + query + "\" ===" + ConsoleColors.RESET);
+        if (matches.isEmpty()) {
+            System.out.println("No transactions found.");
+        }
+        for (Transaction transaction : matches) {
+            System.out.println(transaction);
+        }
+    }
+
+    // Opening and closing balance of the query's date range, read from balance checkpoints
+    public static void showStatementBalances(User user, HistoryQuery query) {
+        Account account = user.getAccount();
+        long opening = query.getFromMillis() == Long.MIN_VALUE ? 0 : account.getBalanceAt(query.getFromMillis() - 1);
+        long closing = account.getBalanceAt(query.getToMillis() == Long.MAX_VALUE ? Long.MAX_VALUE : query.getToMillis() - 1);
+        System.out.println("Opening balance: $" + Money.format(opening) + " | Closing balance: $" + Money.format(closing));
+    }
+
+    // Ledger-wide invariant check; runs alongside live postings
+    public static LedgerReconciler.Report reconcile(Collection<User> users) {
+        LedgerReconciler.Report report = LedgerReconciler.reconcile(users);
+        System.out.println("\n" + ConsoleColors.CYAN_BOLD + "=== Ledger Reconciliation ===" + ConsoleColors.RESET);
+        System.out.println("Accounts: " + report.getAccounts() + " | Transactions: " + report.getTransactions()
+                + " | Took: " + report.getElapsedMillis() + " ms");
+        System.out.println("Total balance: $" + Money.format(report.getTotalBalance())
+                + " | Deposits: $" + Money.format(report.getDeposits())
+                + " | Withdrawals: $" + Money.format(report.getWithdrawals())
+                + " | Transfers: $" + Money.format(report.getTransfers()));
+        if (report.isConsistent()) {
+            System.out.println(ConsoleColors.GREEN + "Ledger is consistent." + ConsoleColors.RESET);
+        }
+        for (String discrepancy : report.getDiscrepancies()) {
+            System.out.println(ConsoleColors.RED + discrepancy + ConsoleColors.RESET);
+        }
+        return report;
+    }
+
+    // Payroll and bill runs: the whole batch is applied or rejected, with one summary line
+    public static void postBatch(List<Posting> postings) throws InsufficientBalanceException {
+        Account.postBatch(postings);
+        System.out.println("Batch posted: " + postings.size() + " postings.");
+    }
+
+    // Prints one page and returns the cursor for the next one (HistoryPage.END when done)
+    public static long showTransactionHistory(User user, HistoryQuery query, long cursor) {
+        HistoryPage page = user.getAccount().queryHistory(query, cursor);
+        if (cursor == 0) {
+            System.out.println("\n" + ConsoleColors.CYAN_BOLD + "=== Transaction History ===" + ConsoleColors.RESET);
+            if (query.getFromMillis() != Long.MIN_VALUE || query.getToMillis() != Long.MAX_VALUE) {
+                showStatementBalances(user, query);
+            }
+            if (page.getTransactions().isEmpty()) {
+                System.out.println("No transactions found.");
+            }
+        }
+
+        for (Transaction transaction : page.getTransactions()) {
+            System.out.println(transaction);
+        }
+        return page.getNextCursor();
+    }
+}
+
+// Routes postings to a fixed set of shards by account stripe. Each shard has one worker
+// thread that applies its mailbox in order, so an account is only ever written by its
+// shard's thread, and drains the mailbox in batches that share a single journal fsync.
+class ShardedUserRegistry {
+    private static final int MAX_DRAIN = 1024;
+
+    private interface Command {
+        PostingResult run() throws Exception;
+    }
+
+    private static final class Message {
+        final Command command;
+        final CompletableFuture<PostingResult> result = new CompletableFuture<>();
+
+        Message(Command command) {
+            this.command = command;
+        }
+    }
+
+    private static final Message STOP = new Message(null);
+
+    private static final class Shard implements Runnable {
+        final LinkedBlockingQueue<Message> mailbox = new LinkedBlockingQueue<>();
+        final Thread worker;
+
+        Shard(int index) {
+            worker = new Thread(this, "ledger-shard-" + index);
+            worker.setDaemon(true);
+            worker.start();
+        }
+
+        @Override
+        public void run() {
+            List<Message> batch = new ArrayList<>(MAX_DRAIN);
+            Object[] outcomes = new Object[MAX_DRAIN];
+            boolean stopping = false;
+            while (!stopping) {
+                try {
+                    batch.add(mailbox.take());
+                } catch (InterruptedException e) {
+                    return;
+                }
+                mailbox.drainTo(batch, MAX_DRAIN - 1);
+
+                long seq = 0;
+                for (int i = 0; i < batch.size(); i++) {
+                    Message message = batch.get(i);
+                    if (message == STOP) {
+                        stopping = true;
+                        continue;
+                    }
+                    try {
+                        PostingResult result = message.command.run();
+                        if (result != null) { // null: a try posting that was rejected
+                            seq = Math.max(seq, result.getJournalSeq());
+                        }
+                        outcomes[i] = result;
+                    } catch (Exception e) {
+                        outcomes[i] = e;
+                    }
+                }
+                // Replies only go out once every posting in the batch is on disk
+                TransactionJournal log = Account.currentJournal();
+                if (log != null && seq > 0) {
+                    log.awaitDurable(seq);
+                }
+                for (int i = 0; i < batch.size(); i++) {
+                    Message message = batch.get(i);
+                    if (message == STOP) {
+                        continue;
+                    }
+                    if (outcomes[i] instanceof Exception) {
+                        message.result.completeExceptionally((Exception) outcomes[i]);
+                    } else {
+                        message.result.complete((PostingResult) outcomes[i]);
+                    }
+                    outcomes[i] = null;
+                }
+                batch.clear();
+            }
+        }
+    }
+
+    private final Map<String, User> users;
+    private final Shard[] shards;
+    private final AtomicLong transferIds = new AtomicLong(System.currentTimeMillis() << 20);
+
+    // The shard count is rounded down to a power of two no larger than the lock stripe
+    // count, so every stripe belongs to exactly one shard
+    ShardedUserRegistry(Map<String, User> users, int shardCount) {
+        int count = Integer.highestOneBit(Math.max(1, Math.min(shardCount, LedgerLocks.stripes())));
+        this.users = users;
+        this.shards = new Shard[count];
+        for (int i = 0; i < count; i++) {
+            shards[i] = new Shard(i);
+        }
+    }
+
+    public int getShardCount() {
+        return shards.length;
+    }
+
+    public User get(String accountNumber) {
+        return users.get(accountNumber);
+    }
+
+    public CompletableFuture<PostingResult> deposit(String accountNumber, long amount, String description) {
+        return deposit(accountNumber, amount, description, null);
+    }
+
+    public CompletableFuture<PostingResult> deposit(String accountNumber, long amount, String description,
+                                                    String idempotencyKey) {
+        User user = users.get(accountNumber);
+        if (user == null) {
+            return CompletableFuture.failedFuture(new InvalidUserException("Account not found: " + accountNumber));
+        }
+        return deposit(user, amount, description, idempotencyKey);
+    }
+
+    // For callers that already resolved the user, so the account number is not looked up again
+    public CompletableFuture<PostingResult> deposit(User user, long amount, String description,
+                                                    String idempotencyKey) {
+        Account account = user.getAccount();
+        return submit(user.getAccountNumber(), idempotencyKey,
+                IdempotencyCache.fingerprint(Posting.DEPOSIT, amount, null), () -> send(shardOf(account),
+                        () -> account.depositUnsynced(amount, description, idempotencyKey)));
+    }
+
+    public CompletableFuture<PostingResult> withdraw(String accountNumber, long amount, String description) {
+        return withdraw(accountNumber, amount, description, null);
+    }
+
+    public CompletableFuture<PostingResult> withdraw(String accountNumber, long amount, String description,
+                                                     String idempotencyKey) {
+        User user = users.get(accountNumber);
+        if (user == null) {
+            return CompletableFuture.failedFuture(new InvalidUserException("Account not found: " + accountNumber));
+        }
+        return withdraw(user, amount, description, idempotencyKey);
+    }
+
+    public CompletableFuture<PostingResult> withdraw(User user, long amount, String description,
+                                                     String idempotencyKey) {
+        Account account = user.getAccount();
+        return submit(user.getAccountNumber(), idempotencyKey,
+                IdempotencyCache.fingerprint(Posting.WITHDRAW, amount, null), () -> send(shardOf(account),
+                        () -> account.withdrawUnsynced(amount, description, idempotencyKey)));
+    }
+
+    public CompletableFuture<PostingResult> transfer(String fromAccount, String toAccount, long amount,
+                                                     String description) {
+        return transfer(fromAccount, toAccount, amount, description, null);
+    }
+
+    // Accounts on the same shard transfer in one step. Otherwise the source shard debits and
+    // journals the transfer as in flight, then the destination shard credits it; recovery
+    // completes any credit a crash left behind, so money is never lost between the legs.
+    public CompletableFuture<PostingResult> transfer(String fromAccount, String toAccount, long amount,
+                                                     String description, String idempotencyKey) {
+        User fromUser = users.get(fromAccount);
+        if (fromUser == null) {
+            return CompletableFuture.failedFuture(new InvalidUserException("Account not found: " + fromAccount));
+        }
+        User toUser = users.get(toAccount);
+        if (toUser == null) {
+            return CompletableFuture.failedFuture(new InvalidUserException("Recipient account not found: " + toAccount));
+        }
+        return transfer(fromUser, toUser, amount, description, idempotencyKey);
+    }
+
+    public CompletableFuture<PostingResult> transfer(User fromUser, User toUser, long amount,
+                                                     String description, String idempotencyKey) {
+        String fromAccount = fromUser.getAccountNumber();
+        String toAccount = toUser.getAccountNumber();
+        Account source = fromUser.getAccount();
+        Account recipient = toUser.getAccount();
+        Shard from = shardOf(source);
+        Shard to = shardOf(recipient);
+        long fingerprint = IdempotencyCache.fingerprint(Posting.TRANSFER, amount, toAccount);
+        if (from == to) {
+            return submit(fromAccount, idempotencyKey, fingerprint, () -> send(from,
+                    () -> source.transferUnsynced(recipient, amount, description, idempotencyKey)));
+        }
+        return submit(fromAccount, idempotencyKey, fingerprint, () -> {
+            long transferId = transferIds.incrementAndGet();
+            return send(from, () -> source.debitTransferLeg(toAccount, amount, description, transferId, idempotencyKey))
+                    .thenCompose(debit -> send(to, () -> recipient.creditTransferLeg(fromAccount, amount, description,
+                            transferId)).thenApply(ignored -> debit));
+        });
+    }
+
+    // For AccountService.tryWithdraw and tryTransfer: completes with null, instead of an
+    // InsufficientBalanceException, when funds are short
+    CompletableFuture<PostingResult> tryPost(byte type, User user, User recipient, long amount, String description) {
+        Account account = user.getAccount();
+        if (type == Posting.WITHDRAW) {
+            return send(shardOf(account), () -> account.tryApply(type, null, amount, description, false));
+        }
+        Account destination = recipient.getAccount();
+        Shard from = shardOf(account);
+        Shard to = shardOf(destination);
+        if (from == to) {
+            return send(from, () -> account.tryApply(type, destination, amount, description, false));
+        }
+        String fromAccount = user.getAccountNumber();
+        String toAccount = recipient.getAccountNumber();
+        long transferId = transferIds.incrementAndGet();
+        return send(from, () -> account.tryDebitTransferLeg(toAccount, amount, description, transferId, null))
+                .thenCompose(debit -> debit == null ? CompletableFuture.completedFuture(null)
+                        : send(to, () -> destination.creditTransferLeg(fromAccount, amount, description, transferId))
+                                .thenApply(ignored -> debit));
+    }
+
+    // Lets every shard finish what is already queued, then stops the workers
+    public void shutdown() {
+        for (Shard shard : shards) {
+            shard.mailbox.add(STOP);
+        }
+        for (Shard shard : shards) {
+            try {
+                shard.worker.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    private Shard shardOf(Account account) {
+        return shards[account.getStripe() & (shards.length - 1)];
+    }
+
+    private static CompletableFuture<PostingResult> submit(String accountNumber, String idempotencyKey,
+                                                           long fingerprint,
+                                                           Supplier<CompletableFuture<PostingResult>> start) {
+        if (idempotencyKey == null) {
+            return start.get();
+        }
+        return IdempotencyCache.POSTINGS.executeAsync(accountNumber, idempotencyKey, fingerprint, start);
+    }
+
+    private static CompletableFuture<PostingResult> send(Shard shard, Command command) {
+        Message message = new Message(command);
+        shard.mailbox.add(message);
+        return message.result;
+    }
+}
+
+// Alternative execution mode for postings, after the LMAX disruptor. Producers claim a
+// slot in a preallocated ring and publish the posting into it; three stage threads follow
+// each other around the ring. The ledger stage applies each run of published slots under
+// one acquisition of the stripes involved and appends the applied postings to the journal
+// before releasing them, so, as on every other posting path, each account's log order is
+// its apply order. The journal stage waits for one fsync per run, and the notification
+// stage reports results and frees the slots. Producers never take a lock and nothing is
+// allocated per posting by the ring itself.
+class PostingPipeline {
+    static final byte APPLIED = Account.APPLIED;
+    static final byte INSUFFICIENT_BALANCE = Account.INSUFFICIENT_BALANCE;
+    static final byte INVALID_AMOUNT = Account.INVALID_AMOUNT; // the credit would overflow the balance
+
+    // Runs on the notification thread once a posting is durable, or rejected
+    interface Listener {
+        void onPosted(long sequence, byte status, Account account, long amount, long balanceAfter);
+    }
+
+    private static final int MAX_RUN = 1024; // slots a stage handles before publishing its progress
+
+    private static final class Slot {
+        volatile long published = -1; // sequence stored last, once the fields below are filled
+        byte type;
+        Account account;
+        Account recipient;
+        long amount;
+        String description;
+        String idempotencyKey;
+        CompletableFuture<PostingResult> reply; // only for post(), submit() and tryPost()
+        boolean quiet; // a rejection completes reply with null rather than an exception
+        byte status;
+        long balanceAfter;
+        long timestamp;
+        long journalSeq; // 0 when nothing was appended
+    }
+
+    private final Slot[] ring;
+    private final int mask;
+    private final TransactionJournal journal;
+    private final Listener listener;
+    // Twice the last claimed sequence, plus one once shut down. Claims and the shutdown go
+    // through this one counter, so a claim either falls at or before the final sequence,
+    // which the stages drain, or fails; no claimed slot is left without a stage to fill it.
+    private final AtomicLong claims = new AtomicLong(-2);
+    private volatile long finalSequence = Long.MAX_VALUE; // last claimed sequence, once shut down
+    private volatile long applied = -1;
+    private volatile long journaled = -1;
+    private volatile long notified = -1;
+    private volatile boolean running = true;
+    private final BitSet heldStripes = new BitSet(LedgerLocks.stripes());
+    private final Thread[] stages;
+
+    // capacity is rounded up to a power of two; journal and listener may be null
+    PostingPipeline(int capacity, TransactionJournal journal, Listener listener) {
+        int size = Integer.highestOneBit(Math.max(2, capacity) - 1) << 1;
+        this.ring = new Slot[size];
+        this.mask = size - 1;
+        for (int i = 0; i < size; i++) {
+            ring[i] = new Slot();
+        }
+        this.journal = journal;
+        this.listener = listener;
+        this.stages = new Thread[] {
+                new Thread(this::runLedger, "pipeline-ledger"),
+                new Thread(this::runJournal, "pipeline-journal"),
+                new Thread(this::runNotifier, "pipeline-notifier")
+        };
+        for (Thread stage : stages) {
+            stage.setDaemon(true);
+            stage.start();
+        }
+    }
+
+    public long publishDeposit(Account account, long amount, String description) {
+        return publish(Posting.DEPOSIT, account, null, amount, description, null, null, false);
+    }
+
+    public long publishWithdraw(Account account, long amount, String description) {
+        return publish(Posting.WITHDRAW, account, null, amount, description, null, null, false);
+    }
+
+    public long publishTransfer(Account from, Account to, long amount, String description) {
+        return publish(Posting.TRANSFER, from, to, amount, description, null, null, false);
+    }
+
+    // Blocking form for interactive callers: waits for the posting to be applied and durable
+    public PostingResult post(byte type, Account account, Account recipient, long amount, String description,
+                              String idempotencyKey) throws InsufficientBalanceException {
+        CompletableFuture<PostingResult> reply = submit(type, account, recipient, amount, description, idempotencyKey);
+        try {
+            return reply.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof InsufficientBalanceException) {
+                throw (InsufficientBalanceException) e.getCause();
+            }
+            throw e;
+        }
+    }
+
+    // Completes on the notification thread once the posting is durable, or rejected; fails
+    // at once for a non-positive amount or a pipeline that is shut down
+    public CompletableFuture<PostingResult> submit(byte type, Account account, Account recipient, long amount,
+                                                   String description, String idempotencyKey) {
+        if (amount <= 0) {
+            return CompletableFuture.failedFuture(new InvalidInputException("Amount must be positive."));
+        }
+        CompletableFuture<PostingResult> reply = new CompletableFuture<>();
+        publish(type, account, recipient, amount, description, idempotencyKey, reply, false);
+        return reply;
+    }
+
+    // Blocking form for AccountService.tryWithdraw and tryTransfer: null when funds are short
+    PostingResult tryPost(byte type, Account account, Account recipient, long amount, String description) {
+        CompletableFuture<PostingResult> reply = new CompletableFuture<>();
+        publish(type, account, recipient, amount, description, null, reply, true);
+        return reply.join();
+    }
+
+    // Returns once the posting with this sequence has been reported
+    public void awaitNotified(long sequence) {
+        int idle = 0;
+        while (notified < sequence) {
+            idle = idle(idle);
+        }
+    }
+
+    // Stops taking postings, lets the stages finish everything already claimed, then stops them
+    public void shutdown() {
+        long state = claims.get();
+        while ((state & 1) == 0 && !claims.compareAndSet(state, state + 1)) {
+            state = claims.get();
+        }
+        if ((state & 1) == 0) {
+            finalSequence = state >> 1; // before running is cleared, which the stages read first
+        }
+        running = false;
+        for (Thread stage : stages) {
+            try {
+                stage.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    // Amounts are checked before a slot is claimed, so the ledger stage only sees valid ones.
+    // After shutdown the reply, if any, fails; without one the call throws.
+    private long publish(byte type, Account account, Account recipient, long amount, String description,
+                         String idempotencyKey, CompletableFuture<PostingResult> reply, boolean quiet) {
+        if (amount <= 0) {
+            throw new IllegalArgumentException("Amount must be positive: " + amount);
+        }
+        long state = claims.getAndAdd(2);
+        if ((state & 1) != 0) {
+            IllegalStateException closed = new IllegalStateException("Posting pipeline is shut down");
+            if (reply == null) {
+                throw closed;
+            }
+            reply.completeExceptionally(closed);
+            return -1;
+        }
+        long sequence = (state >> 1) + 1;
+        int idle = 0;
+        while (sequence - ring.length > notified) { // ring full: wait for the slot to be freed
+            idle = idle(idle);
+        }
+        Slot slot = ring[(int) sequence & mask];
+        slot.type = type;
+        slot.account = account;
+        slot.recipient = recipient;
+        slot.amount = amount;
+        slot.description = description;
+        slot.idempotencyKey = idempotencyKey;
+        slot.reply = reply;
+        slot.quiet = quiet;
+        slot.published = sequence;
+        return sequence;
+    }
+
+    private void runLedger() {
+        long next = 0;
+        int idle = 0;
+        while (running || next <= finalSequence) {
+            long end = next;
+            while (end - next < MAX_RUN && ring[(int) end & mask].published == end) {
+                end++;
+            }
+            if (end == next) {
+                idle = idle(idle);
+                continue;
+            }
+            idle = 0;
+            applyRun(next, end);
+            applied = end - 1;
+            next = end;
+        }
+    }
+
+    private void applyRun(long from, long to) {
+        heldStripes.clear();
+        for (long sequence = from; sequence < to; sequence++) {
+            Slot slot = ring[(int) sequence & mask];
+            heldStripes.set(slot.account.getStripe());
+            if (slot.recipient != null) {
+                heldStripes.set(slot.recipient.getStripe());
+            }
+        }
+        for (int stripe = heldStripes.nextSetBit(0); stripe >= 0; stripe = heldStripes.nextSetBit(stripe + 1)) {
+            LedgerLocks.lock(stripe); // ascending, the same order as every other multi-stripe lock
+        }
+        try {
+            for (long sequence = from; sequence < to; sequence++) {
+                Slot slot = ring[(int) sequence & mask];
+                slot.timestamp = System.currentTimeMillis();
+                boolean ok;
+                try {
+                    ok = slot.account.applyHeld(slot.type, slot.recipient, slot.amount, slot.description,
+                            slot.timestamp);
+                    slot.status = ok ? APPLIED : INSUFFICIENT_BALANCE;
+                } catch (ArithmeticException e) { // thrown before anything changed
+                    ok = false;
+                    slot.status = INVALID_AMOUNT;
+                }
+                slot.balanceAfter = slot.account.getBalance();
+                slot.journalSeq = ok && journal != null ? log(slot) : 0;
+            }
+        } finally {
+            for (int stripe = heldStripes.nextSetBit(0); stripe >= 0; stripe = heldStripes.nextSetBit(stripe + 1)) {
+                LedgerLocks.unlock(stripe);
+            }
+        }
+    }
+
+    private void runJournal() {
+        long next = 0;
+        int idle = 0;
+        while (running || next <= finalSequence) {
+            long end = Math.min(applied + 1, next + MAX_RUN);
+            if (end == next) {
+                idle = idle(idle);
+                continue;
+            }
+            idle = 0;
+            if (journal != null) {
+                long seq = 0;
+                for (long sequence = next; sequence < end; sequence++) {
+                    seq = Math.max(seq, ring[(int) sequence & mask].journalSeq);
+                }
+                journal.awaitDurable(seq); // appended by the ledger stage, under the stripes
+            }
+            journaled = end - 1;
+            next = end;
+        }
+    }
+
+    private long log(Slot slot) {
+        String accountNumber = slot.account.getAccountNumber();
+        switch (slot.type) {
+            case Posting.DEPOSIT:
+                return journal.logDeposit(slot.timestamp, accountNumber, slot.amount, slot.description,
+                        slot.idempotencyKey);
+            case Posting.WITHDRAW:
+                return journal.logWithdraw(slot.timestamp, accountNumber, slot.amount, slot.description,
+                        slot.idempotencyKey);
+            default:
+                return journal.logTransfer(slot.timestamp, accountNumber, slot.recipient.getAccountNumber(),
+                        slot.amount, slot.description, slot.idempotencyKey);
+        }
+    }
+
+    private void runNotifier() {
+        long next = 0;
+        int idle = 0;
+        while (running || next <= finalSequence) {
+            long end = Math.min(journaled + 1, next + MAX_RUN);
+            if (end == next) {
+                idle = idle(idle);
+                continue;
+            }
+            idle = 0;
+            for (long sequence = next; sequence < end; sequence++) {
+                Slot slot = ring[(int) sequence & mask];
+                if (listener != null) {
+                    listener.onPosted(sequence, slot.status, slot.account, slot.amount, slot.balanceAfter);
+                }
+                if (slot.reply != null) {
+                    reply(slot);
+                }
+                slot.account = null;
+                slot.recipient = null;
+                slot.description = null;
+                slot.idempotencyKey = null;
+                slot.reply = null;
+            }
+            notified = end - 1;
+            next = end;
+        }
     }
 
-    public double getTargetAmount(double income) {
-        return income * (targetPercentage / 100);
+    private static void reply(Slot slot) {
+        if (slot.status == APPLIED) {
+            String type = slot.type == Posting.DEPOSIT ? "DEPOSIT" : slot.type == Posting.WITHDRAW ? "WITHDRAW" : "TRANSFER_TO";
+            slot.reply.complete(new PostingResult(type, slot.amount, slot.balanceAfter, slot.timestamp, slot.journalSeq));
+        } else if (slot.status == INVALID_AMOUNT) {
+            slot.reply.completeExceptionally(new ArithmeticException("Balance would overflow"));
+        } else if (slot.quiet) {
+            slot.reply.complete(null);
+        } else {
+            slot.reply.completeExceptionally(new InsufficientBalanceException(
+                    "Insufficient balance. Current balance: " + Money.format(slot.balanceAfter)));
+        }
     }
 
-    public double getProgressPercentage(double income) {
-        double target = getTargetAmount(income);
-        if (target == 0) return 0;
-        return (amountDonated / target) * 100;
+    // Spin briefly, then yield, then park: stays responsive under load without burning an idle core
+    private static int idle(int count) {
+        if (count < 100) {
+            Thread.onSpinWait();
+        } else if (count < 200) {
+            Thread.yield();
+        } else {
+            LockSupport.parkNanos(50_000);
+        }
+        return count + 1;
     }
+}
 
-    public boolean isGoalAchieved(double income) {
-        return amountDonated >= getTargetAmount(income);
+// Online ledger reconciliation. Each account's balance and transaction count are read as one
+// consistent pair, then that prefix of its history is re-summed on a fork-join pool in chunks,
+// holding the account's stripe for one chunk at a time so writers keep going. It checks that
+// every balance equals deposits + transfers in - withdrawals - transfers out, and that the
+// transfers out of each account to another match that account's transfers in from it.
+// Accounts are read at different instants, so a pair can look one-sided; such pairs are
+// re-read under both stripes, with a few retries for a cross-shard credit still in flight.
+class LedgerReconciler {
+    private static final int CHUNK = 1 << 16; // history entries per fork-join leaf
+    private static final int RECHECKS = 5;
+    private static final long RECHECK_PAUSE_MILLIS = 20;
+
+    static final class Report {
+        private final int accounts;
+        private final long transactions;
+        private final long totalBalance;
+        private final long deposits;
+        private final long withdrawals;
+        private final long transfers;
+        private final List<String> discrepancies;
+        private final long elapsedMillis;
+
+        Report(int accounts, Tally tally, long totalBalance, List<String> discrepancies, long elapsedMillis) {
+            this.accounts = accounts;
+            this.transactions = tally.entries;
+            this.totalBalance = totalBalance;
+            this.deposits = tally.deposits;
+            this.withdrawals = tally.withdrawals;
+            this.transfers = tally.transfersOut;
+            this.discrepancies = discrepancies;
+            this.elapsedMillis = elapsedMillis;
+        }
+
+        public int getAccounts() { return accounts; }
+        public long getTransactions() { return transactions; }
+        public long getTotalBalance() { return totalBalance; }
+        public long getDeposits() { return deposits; }
+        public long getWithdrawals() { return withdrawals; }
+        public long getTransfers() { return transfers; }
+        public List<String> getDiscrepancies() { return discrepancies; }
+        public long getElapsedMillis() { return elapsedMillis; }
+        public boolean isConsistent() { return discrepancies.isEmpty(); }
     }
-}
 
-// Service Classes
-class SecurityService {
-    public static String encrypt(String plainText) {
-        try {
-            // Simple encryption for console app
-            return Base64.getEncoder().encodeToString(plainText.getBytes());
-        } catch (Exception e) {
-            return plainText; // Fallback
+    // Sums of one slice of history; pair maps are keyed (payer id << 32 | payee id) and hold
+    // transfers out minus transfers in, so matched legs cancel to zero
+    private static final class Tally implements TransactionStore.Visitor {
+        long deposits;
+        long withdrawals;
+        long transfersIn;
+        long transfersOut;
+        long entries;
+        final LongLongHashMap pairAmounts = new LongLongHashMap();
+        final LongLongHashMap pairCounts = new LongLongHashMap();
+        int self; // dictionary id of the account being visited
+
+        @Override
+        public void visit(byte type, long amount, int counterparty) {
+            entries++;
+            switch (type) {
+                case TransactionStore.DEPOSIT:
+                    deposits += amount;
+                    break;
+                case TransactionStore.WITHDRAW:
+                    withdrawals += amount;
+                    break;
+                case TransactionStore.TRANSFER_TO:
+                    transfersOut += amount;
+                    pairAmounts.add(pairKey(self, counterparty), amount);
+                    pairCounts.add(pairKey(self, counterparty), 1);
+                    break;
+                default:
+                    transfersIn += amount;
+                    pairAmounts.add(pairKey(counterparty, self), -amount);
+                    pairCounts.add(pairKey(counterparty, self), -1);
+                    break;
+            }
+        }
+
+        static long pairKey(int payer, int payee) {
+            return ((long) payer << 32) | (payee & 0xFFFFFFFFL);
+        }
+
+        long net() {
+            return deposits + transfersIn - withdrawals - transfersOut;
+        }
+
+        Tally merge(Tally other) {
+            deposits += other.deposits;
+            withdrawals += other.withdrawals;
+            transfersIn += other.transfersIn;
+            transfersOut += other.transfersOut;
+            entries += other.entries;
+            other.pairAmounts.forEach(pairAmounts::add);
+            other.pairCounts.forEach(pairCounts::add);
+            return this;
         }
     }
 
-    public static String decrypt(String encryptedText) {
-        try {
-            return new String(Base64.getDecoder().decode(encryptedText));
-        } catch (Exception e) {
-            return encryptedText; // Fallback
+    // One leaf's worth of work: a contiguous range of one account's history
+    private static final class Slice {
+        final int account;
+        final int from;
+        final int to;
+        long net;
+
+        Slice(int account, int from, int to) {
+            this.account = account;
+            this.from = from;
+            this.to = to;
         }
     }
-}
 
-class AccountService {
-    public static void deposit(User user, double amount, String description) {
-        user.getAccount().deposit(amount, description);
-        System.out.println("Deposit successful. New balance: $" + user.getAccount().getBalance());
+    private static final class SliceTask extends RecursiveTask<Tally> {
+        private static final long serialVersionUID = 1L;
+
+        private final Account[] accounts;
+        private final int[] ids;
+        private final List<Slice> slices;
+        private final long[] startOf; // entries before each slice, for splitting by work
+        private final int lo;
+        private final int hi;
+
+        SliceTask(Account[] accounts, int[] ids, List<Slice> slices, long[] startOf, int lo, int hi) {
+            this.accounts = accounts;
+            this.ids = ids;
+            this.slices = slices;
+            this.startOf = startOf;
+            this.lo = lo;
+            this.hi = hi;
+        }
+
+        @Override
+        protected Tally compute() {
+            if (hi - lo == 1 || startOf[hi] - startOf[lo] <= CHUNK) {
+                Tally tally = new Tally();
+                for (int i = lo; i < hi; i++) {
+                    Slice slice = slices.get(i);
+                    long before = tally.net();
+                    tally.self = ids[slice.account];
+                    accounts[slice.account].visitHistory(slice.from, slice.to, tally);
+                    slice.net = tally.net() - before;
+                }
+                return tally;
+            }
+            int mid = (lo + hi) >>> 1;
+            SliceTask left = new SliceTask(accounts, ids, slices, startOf, lo, mid);
+            left.fork();
+            Tally right = new SliceTask(accounts, ids, slices, startOf, mid, hi).compute();
+            return left.join().merge(right);
+        }
     }
 
-    public static void withdraw(User user, double amount, String description)
-            throws InsufficientBalanceException {
-        user.getAccount().withdraw(amount, description);
-        System.out.println("Withdrawal successful. New balance: $" + user.getAccount().getBalance());
+    public static Report reconcile(Collection<User> users) {
+        return reconcile(users, ForkJoinPool.commonPool());
     }
 
-    public static void transfer(User fromUser, Map<String, User> users,
-                                String toAccountNumber, double amount, String description)
-            throws InsufficientBalanceException, InvalidUserException {
-        if (!users.containsKey(toAccountNumber)) {
-            throw new InvalidUserException("Recipient account not found: " + toAccountNumber);
+    public static Report reconcile(Collection<User> users, ForkJoinPool pool) {
+        long started = System.nanoTime();
+        Account[] accounts = new Account[users.size()];
+        int n = 0;
+        for (User user : users) {
+            if (n == accounts.length) {
+                accounts = Arrays.copyOf(accounts, n * 2 + 1); // users registered meanwhile
+            }
+            accounts[n++] = user.getAccount();
+        }
+        accounts = Arrays.copyOf(accounts, n);
+
+        int[] ids = new int[n];
+        long[] balances = new long[n];
+        LongIntHashMap indexOf = new LongIntHashMap(n * 2);
+        List<Slice> slices = new ArrayList<>();
+        for (int i = 0; i < n; i++) {
+            ids[i] = DescriptionDictionary.internName(accounts[i].getAccountNumber());
+            indexOf.putIfAbsent(ids[i], i);
+            AccountBalance reading = accounts[i].readBalance();
+            balances[i] = reading.getBalance();
+            for (int from = 0; from < reading.getTransactionCount(); from += CHUNK) {
+                slices.add(new Slice(i, from, Math.min(reading.getTransactionCount(), from + CHUNK)));
+            }
         }
+        long[] startOf = new long[slices.size() + 1];
+        for (int i = 0; i < slices.size(); i++) {
+            startOf[i + 1] = startOf[i] + slices.get(i).to - slices.get(i).from;
+        }
+        Tally tally = slices.isEmpty() ? new Tally()
+                : pool.invoke(new SliceTask(accounts, ids, slices, startOf, 0, slices.size()));
 
-        User toUser = users.get(toAccountNumber);
-        fromUser.getAccount().transfer(toUser.getAccount(), amount, description);
-        System.out.println("Transfer successful. New balance: $" + fromUser.getAccount().getBalance());
+        List<String> discrepancies = new ArrayList<>();
+        long[] recomputed = new long[n];
+        for (Slice slice : slices) {
+            recomputed[slice.account] += slice.net;
+        }
+        long totalBalance = 0;
+        for (int i = 0; i < n; i++) {
+            totalBalance += balances[i];
+            if (recomputed[i] != balances[i]) {
+                discrepancies.add("Account " + accounts[i].getAccountNumber() + ": balance $" + Money.format(balances[i])
+                        + " but history sums to $" + Money.format(recomputed[i]));
+            }
+        }
+        Account[] members = accounts;
+        tally.pairAmounts.forEach((key, amount) -> {
+            if (amount != 0 || tally.pairCounts.get(key) != 0) {
+                int payer = indexOf.get(key >>> 32);
+                int payee = indexOf.get((int) key);
+                String problem = recheckPair(payer < 0 ? null : members[payer], payee < 0 ? null : members[payee], key);
+                if (problem != null) {
+                    discrepancies.add(problem);
+                }
+            }
+        });
+        return new Report(n, tally, totalBalance, discrepancies, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started));
     }
 
-    public static void showTransactionHistory(User user) {
-        System.out.println("\n" + ConsoleColors.CYAN_BOLD + "=== Transaction History ===" + ConsoleColors.RESET);
-        if (user.getAccount().getTransactions().isEmpty()) {
-            System.out.println("No transactions found.");
-            return;
+    // The histories up to a seqlock reading of each account are summed without holding both
+    // stripes, one CHUNK per hold like the main pass. Only what was appended since is read
+    // under both stripes, so a same-shard transfer is seen with both legs or neither, and
+    // only a genuinely unmatched leg, or a cross-shard credit that stays queued through every
+    // retry, is reported. Each retry reads just the tail added since the previous one.
+    private static String recheckPair(Account payer, Account payee, long key) {
+        if (payer == null || payee == null) {
+            return "Transfer between " + accountName(payer, (int) (key >>> 32)) + " and "
+                    + accountName(payee, (int) key) + " involves an unknown account";
+        }
+        Tally tally = new Tally();
+        int payerRead = visitPrefix(payer, (int) (key >>> 32), payer.readBalance().getTransactionCount(), tally);
+        int payeeRead = payee == payer ? 0
+                : visitPrefix(payee, (int) key, payee.readBalance().getTransactionCount(), tally);
+        for (int attempt = 0; ; attempt++) {
+            LedgerLocks.lockPair(payer.getStripe(), payee.getStripe());
+            try {
+                payerRead += visitTail(payer, (int) (key >>> 32), payerRead, tally);
+                if (payee != payer) {
+                    payeeRead += visitTail(payee, (int) key, payeeRead, tally);
+                }
+            } finally {
+                LedgerLocks.unlockPair(payer.getStripe(), payee.getStripe());
+            }
+            long unmatchedAmount = tally.pairAmounts.get(key);
+            long unmatchedLegs = tally.pairCounts.get(key);
+            if (unmatchedAmount == 0 && unmatchedLegs == 0) {
+                return null;
+            }
+            if (attempt == RECHECKS) {
+                return "Transfers " + payer.getAccountNumber() + " -> " + payee.getAccountNumber() + ": debits exceed credits by $"
+                        + Money.format(unmatchedAmount) + " over " + unmatchedLegs + " legs";
+            }
+            try {
+                Thread.sleep(RECHECK_PAUSE_MILLIS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return null;
+            }
         }
+    }
 
-        for (Transaction transaction : user.getAccount().getTransactions()) {
-            System.out.println(transaction);
+    private static int visitPrefix(Account account, int self, int count, Tally tally) {
+        tally.self = self;
+        for (int from = 0; from < count; from += CHUNK) {
+            account.visitHistory(from, Math.min(count, from + CHUNK), tally);
         }
+        return count;
+    }
+
+    // Entries from `from` to the end, read by a caller holding the account's stripe
+    private static int visitTail(Account account, int self, int from, Tally tally) {
+        long before = tally.entries;
+        tally.self = self;
+        account.visitHistory(from, Integer.MAX_VALUE, tally);
+        return (int) (tally.entries - before);
+    }
+
+    private static String accountName(Account account, int id) {
+        return account != null ? account.getAccountNumber() : id < 0 ? "(unrecorded)" : DescriptionDictionary.lookup(id);
     }
 }
 
 class ReminderService {
+    private static final int WARNING_DAYS = 2;
     private static ScheduledExecutorService scheduler = Executors.newScheduledThreadPool(1);
+    private static final ReminderWheel wheel = new ReminderWheel(LocalDate.now(), WARNING_DAYS);
+    private static volatile LedgerEvents.AsyncSubscription coverageCheck;
 
-    public static void addReminder(User user, String billType, double amount, LocalDate dueDate,
+    public static void addReminder(User user, String billType, long amount, LocalDate dueDate,
                                    String description, String priority) {
         Reminder reminder = new Reminder(billType, amount, dueDate, description, priority);
-        user.addReminder(reminder);
+        user.addReminder(reminder).join();
         System.out.println("Reminder added: " + reminder);
     }
 
@@ -498,15 +5869,16 @@ class ReminderService {
         System.out.println("+----+----------------------+-----------+------------+---------------------+----------+---------+");
 
         int i = 1;
+        LocalDate today = LocalDate.now();
         for (Reminder reminder : user.getReminders()) {
             String status = reminder.isPaid() ?
                     ConsoleColors.GREEN + "PAID" + ConsoleColors.RESET :
-                    (reminder.isDue() ? ConsoleColors.RED + "DUE" + ConsoleColors.RESET : ConsoleColors.YELLOW + "PENDING" + ConsoleColors.RESET);
+                    (reminder.isDue(today) ? ConsoleColors.RED + "DUE" + ConsoleColors.RESET : ConsoleColors.YELLOW + "PENDING" + ConsoleColors.RESET);
 
-            System.out.printf("| %-2d | %-20s | $%-8.2f | %-10s | %-19s | %-8s | %-7s |\n",
+            System.out.printf("| %-2d | %-20s | $%-8s | %-10s | %-19s | %-8s | %-7s |\n",
                     i++,
                     reminder.getBillType(),
-                    reminder.getAmount(),
+                    Money.format(reminder.getAmount()),
                     reminder.getDueDate().toString(),
                     reminder.getDescription().length() > 19 ? reminder.getDescription().substring(0, 16) + "..." : reminder.getDescription(),
                     reminder.getPriority(),
@@ -515,29 +5887,64 @@ class ReminderService {
         System.out.println("+----+----------------------+-----------+------------+---------------------+----------+---------+");
     }
 
-    public static void startReminderChecker(Map<String, User> users) {
-        Runnable reminderCheck = () -> {
-            for (User user : users.values()) {
+    // Reminders of users already in memory are indexed once; later ones are indexed as users
+    // add them. Users still only in the snapshot are left alone: UserSnapshot.decode indexes
+    // their reminders when they are first loaded.
+    public static void startReminderChecker(Collection<User> inMemory) {
+        scheduler.execute(() -> {
+            for (User user : inMemory) {
                 for (Reminder reminder : user.getReminders()) {
-                    if (reminder.isDue() && !reminder.isPaid()) {
-                        System.out.println("\n" + ConsoleColors.RED_BACKGROUND + "[REMINDER] " + user.getName() +
-                                ", your bill '" + reminder.getBillType() +
-                                "' for $" + reminder.getAmount() + " is due!" + ConsoleColors.RESET);
-                    } else if (reminder.isDueInDays(2) && !reminder.isPaid()) {
-                        System.out.println("\n" + ConsoleColors.YELLOW_BACKGROUND + "[REMINDER] " + user.getName() +
-                                ", your bill '" + reminder.getBillType() +
-                                "' for $" + reminder.getAmount() + " is due in 2 days!" + ConsoleColors.RESET);
-                    }
+                    track(user, reminder);
                 }
             }
-        };
+        });
 
         // Check every minute for demonstration
-        scheduler.scheduleAtFixedRate(reminderCheck, 0, 1, TimeUnit.MINUTES);
+        scheduler.scheduleAtFixedRate(() -> checkReminders(LocalDate.now()), 0, 1, TimeUnit.MINUTES);
+        coverageCheck = LedgerEvents.subscribeAsync(LedgerEvents.TransactionPosted.class,
+                ReminderService::checkCoverage, 1024, "reminders");
+    }
+
+    // Warns when a debit leaves less than the bills already inside the warning window. It
+    // takes the wheel's lock, so it runs off the posting path as an async subscriber.
+    static void checkCoverage(LedgerEvents.TransactionPosted event) {
+        if (event.result.getType().equals("DEPOSIT")) {
+            return;
+        }
+        long due = wheel.unpaidAmount(event.user);
+        if (due > event.result.getBalanceAfter()) {
+            System.out.println("\n" + ConsoleColors.YELLOW_BACKGROUND + "[REMINDER] " + event.user.getName() +
+                    ", your balance of $" + Money.format(event.result.getBalanceAfter()) +
+                    " does not cover $" + Money.format(due) + " of bills due soon." + ConsoleColors.RESET);
+        }
+    }
+
+    static void track(User user, Reminder reminder) {
+        wheel.schedule(user, reminder);
+    }
+
+    // One pass of the reminder checker: only reminders inside the warning window are visited
+    static void checkReminders(LocalDate today) {
+        for (ReminderWheel.Entry entry : wheel.advance(today)) {
+            Reminder reminder = entry.reminder;
+            if (reminder.isDue(today)) {
+                System.out.println("\n" + ConsoleColors.RED_BACKGROUND + "[REMINDER] " + entry.user.getName() +
+                        ", your bill '" + reminder.getBillType() +
+                        "' for $" + Money.format(reminder.getAmount()) + " is due!" + ConsoleColors.RESET);
+            } else {
+                System.out.println("\n" + ConsoleColors.YELLOW_BACKGROUND + "[REMINDER] " + entry.user.getName() +
+                        ", your bill '" + reminder.getBillType() +
+                        "' for $" + Money.format(reminder.getAmount()) + " is due in " + WARNING_DAYS + " days!" + ConsoleColors.RESET);
+            }
+        }
     }
 
     public static void stopReminderChecker() {
         scheduler.shutdown();
+        LedgerEvents.AsyncSubscription subscription = coverageCheck;
+        if (subscription != null) {
+            subscription.close();
+        }
     }
 
     public static void markReminderAsPaid(User user, int index) {
@@ -547,49 +5954,191 @@ class ReminderService {
         }
 
         Reminder reminder = user.getReminders().get(index - 1);
-        reminder.markAsPaid();
+        CompletableFuture<Void> durable = LedgerEvents.publish(new LedgerEvents.ReminderPaid(user, reminder.getId()));
+        wheel.cancel(reminder);
+        durable.join();
         System.out.println("Marked reminder as paid: " + reminder.getBillType());
     }
 }
 
-class BudgetService {
+// Hashed timing wheel of unpaid reminders keyed by due day. Each slot holds the reminders
+// whose due day maps to it; when a day enters the warning window its slot is swept and the
+// reminders due that day move to the active list. A check therefore visits only reminders
+// that are due or about to be, and schedule/cancel are O(1) list splices.
+class ReminderWheel {
+    private static final int SLOTS = 512; // days per revolution, power of two
+    private static final int MASK = SLOTS - 1;
+
+    static final class Entry {
+        final User user;
+        final Reminder reminder;
+        final long dueDay;
+        private Entry prev;
+        private Entry next;
+        private int slot; // ACTIVE when linked into the active list
+
+        Entry(User user, Reminder reminder) {
+            this.user = user;
+            this.reminder = reminder;
+            this.dueDay = reminder.getDueDate().toEpochDay();
+        }
+    }
+
+    private static final int ACTIVE = -1;
+
+    private final Entry[] slots = new Entry[SLOTS];
+    private final Map<Reminder, Entry> entries = new IdentityHashMap<>();
+    private final int warningDays;
+    private Entry active;
+    private long horizon; // last due day moved into the active list
+
+    ReminderWheel(LocalDate today, int warningDays) {
+        this.warningDays = warningDays;
+        this.horizon = today.toEpochDay() + warningDays;
+    }
+
+    public synchronized void schedule(User user, Reminder reminder) {
+        if (reminder.isPaid() || entries.containsKey(reminder)) {
+            return;
+        }
+        Entry entry = new Entry(user, reminder);
+        entries.put(reminder, entry);
+        link(entry, entry.dueDay <= horizon ? ACTIVE : (int) (entry.dueDay & MASK));
+    }
+
+    public synchronized void cancel(Reminder reminder) {
+        Entry entry = entries.remove(reminder);
+        if (entry != null) {
+            unlink(entry);
+        }
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    // Total of the user's unpaid reminders in the active list, as of the last advance
+    public synchronized long unpaidAmount(User user) {
+        long total = 0;
+        for (Entry entry = active; entry != null; entry = entry.next) {
+            if (entry.user == user && !entry.reminder.isPaid()) {
+                total = Money.add(total, entry.reminder.getAmount());
+            }
+        }
+        return total;
+    }
+
+    // Moves the window up to today + warningDays and returns the unpaid active reminders
+    public synchronized List<Entry> advance(LocalDate today) {
+        long target = today.toEpochDay() + warningDays;
+        if (target - horizon >= SLOTS) {
+            for (int slot = 0; slot < SLOTS; slot++) {
+                promote(slot, target);
+            }
+        } else {
+            while (horizon < target) {
+                promote((int) ((horizon + 1) & MASK), horizon + 1);
+                horizon++;
+            }
+        }
+        horizon = Math.max(horizon, target);
+
+        List<Entry> due = new ArrayList<>();
+        for (Entry entry = active; entry != null; ) {
+            Entry next = entry.next;
+            if (entry.reminder.isPaid()) {
+                entries.remove(entry.reminder); // paid without going through cancel
+                unlink(entry);
+            } else {
+                due.add(entry);
+            }
+            entry = next;
+        }
+        return due;
+    }
+
+    // Moves entries of one slot that fall due by the given day into the active list
+    private void promote(int slot, long upToDay) {
+        for (Entry entry = slots[slot]; entry != null; ) {
+            Entry next = entry.next;
+            if (entry.dueDay <= upToDay) {
+                unlink(entry);
+                link(entry, ACTIVE);
+            }
+            entry = next;
+        }
+    }
+
+    private void link(Entry entry, int slot) {
+        Entry head = slot == ACTIVE ? active : slots[slot];
+        entry.slot = slot;
+        entry.prev = null;
+        entry.next = head;
+        if (head != null) {
+            head.prev = entry;
+        }
+        if (slot == ACTIVE) {
+            active = entry;
+        } else {
+            slots[slot] = entry;
+        }
+    }
+
+    private void unlink(Entry entry) {
+        if (entry.prev != null) {
+            entry.prev.next = entry.next;
+        } else if (entry.slot == ACTIVE) {
+            active = entry.next;
+        } else {
+            slots[entry.slot] = entry.next;
+        }
+        if (entry.next != null) {
+            entry.next.prev = entry.prev;
+        }
+        entry.prev = null;
+        entry.next = null;
+    }
+}
 
-    private static Scanner scanner = new Scanner(System.in);
+class BudgetService {
 
-    public static void setMonthlyBudget(User user, double salary, double budgetLimit) {
-        user.getBudget().setMonthlySalary(salary);
-        user.getBudget().setBudgetLimit(budgetLimit);
+    public static void setMonthlyBudget(User user, long salary, long budgetLimit) {
+        LedgerEvents.publish(new LedgerEvents.BudgetSet(user, salary, budgetLimit)).join();
         System.out.println("\n✅ Budget set successfully.");
-        System.out.println("Monthly Salary: $" + salary);
-        System.out.println("Budget Limit: $" + budgetLimit);
+        System.out.println("Monthly Salary: $" + Money.format(salary));
+        System.out.println("Budget Limit: $" + Money.format(budgetLimit));
 
         // Show weekly budget allocation
-        Map<Integer, Double> weeklyBudget = user.getBudget().getWeeklyBudgetAllocation();
+        long[] weeklyBudget = user.getBudget().getWeeklyBudgetAllocation();
         System.out.println("\n=== Weekly Budget Allocation ===");
-        for (Map.Entry<Integer, Double> entry : weeklyBudget.entrySet()) {
-            System.out.printf("Week %d: $%.2f\n", entry.getKey(), entry.getValue());
+        for (int i = 0; i < weeklyBudget.length; i++) {
+            System.out.printf("Week %d: $%s\n", i + 1, Money.format(weeklyBudget[i]));
         }
     }
 
     // Let user enter weekly expenses
-    public static void recordWeeklyExpenses(User user) {
+    public static void recordWeeklyExpenses(User user, Scanner scanner) throws InvalidInputException {
         Budget budget = user.getBudget();
+        YearMonth period = budget.getPeriod();
+        CompletableFuture<Void> durable = CompletableFuture.completedFuture(null);
         System.out.println("\n=== Enter Weekly Expenses ===");
-        for (int i = 1; i <= 4; i++) {
+        for (int i = 1; i <= budget.getWeeksInPeriod(); i++) {
             System.out.print("Enter expense for Week " + i + ": $");
-            double expense = scanner.nextDouble();
-            budget.addWeeklyExpense(i, expense);
+            long expense = Money.parse(scanner.next());
+            Budget.checkWeek(period, i);
+            durable = LedgerEvents.publish(new LedgerEvents.WeeklyExpenseRecorded(user, period, i, expense));
         }
+        durable.join(); // the journal syncs in order, so the last week covers the others
         System.out.println("✅ Weekly expenses recorded successfully!");
     }
 
     public static void showBudgetReport(User user) {
         Budget budget = user.getBudget();
         System.out.println("\n=== Budget Report ===");
-        System.out.println("Monthly Salary: $" + budget.getMonthlySalary());
-        System.out.println("Budget Limit: $" + budget.getBudgetLimit());
-        System.out.println("Current Expenses: $" + budget.getCurrentExpenses());
-        System.out.println("Remaining Budget: $" + budget.getRemainingBudget());
+        System.out.println("Monthly Salary: $" + Money.format(budget.getMonthlySalary()));
+        System.out.println("Budget Limit: $" + Money.format(budget.getBudgetLimit()));
+        System.out.println("Current Expenses: $" + Money.format(budget.getCurrentExpenses()));
+        System.out.println("Remaining Budget: $" + Money.format(budget.getRemainingBudget()));
 
         if (budget.isBudgetExceeded()) {
             System.out.println("⚠️  WARNING: You have exceeded your budget!");
@@ -598,33 +6147,43 @@ class BudgetService {
         }
 
         // Show weekly budget status
-        Map<Integer, Double> weeklyBudget = budget.getWeeklyBudgetAllocation();
-        Map<Integer, Double> weeklyExpenses = budget.getWeeklyExpenses();
+        long[] weeklyBudget = budget.getWeeklyBudgetAllocation();
+
+        System.out.println("\n=== Weekly Budget Status (" + budget.getPeriod() + ") ===");
+        for (int i = 1; i <= weeklyBudget.length; i++) {
+            long budgetAmount = weeklyBudget[i - 1];
+            long spent = budget.getWeeklyExpense(i);
+            long remaining = Money.subtract(budgetAmount, spent);
+            System.out.printf("Week %d: Budget: $%s | Spent: $%s | Remaining: $%s\n",
+                    i, Money.format(budgetAmount), Money.format(spent), Money.format(remaining));
+        }
 
-        System.out.println("\n=== Weekly Budget Status ===");
-        for (int i = 1; i <= 4; i++) {
-            double budgetAmount = weeklyBudget.get(i);
-            double spent = weeklyExpenses.get(i);
-            double remaining = budgetAmount - spent;
-            System.out.printf("Week %d: Budget: $%.2f | Spent: $%.2f | Remaining: $%.2f\n",
-                    i, budgetAmount, spent, remaining);
+        System.out.println("Spent today: $" + Money.format(budget.getDailyExpense(LocalDate.now())));
+
+        // Show the last few months of spending
+        System.out.println("\n=== Monthly Spending ===");
+        for (int i = 5; i >= 0; i--) {
+            YearMonth month = budget.getPeriod().minusMonths(i);
+            System.out.printf("%s: $%s\n", month, Money.format(budget.getMonthlyExpense(month)));
         }
 
         // Show category-wise expenses (if any)
-        if (!budget.getCategoryExpenses().isEmpty()) {
+        Map<String, Long> categoryExpenses = budget.getCategoryExpenses();
+        if (!categoryExpenses.isEmpty()) {
             System.out.println("\n=== Category-wise Expenses ===");
-            for (Map.Entry<String, Double> entry : budget.getCategoryExpenses().entrySet()) {
-                System.out.printf("%-15s: $%.2f\n", entry.getKey(), entry.getValue());
+            for (Map.Entry<String, Long> entry : categoryExpenses.entrySet()) {
+                System.out.printf("%-15s: $%s\n", entry.getKey(), Money.format(entry.getValue()));
             }
         }
     }
 }
 
 class GroceryService {
-    public static void addGroceryItem(User user, String name, String category, double price, int quantity, LocalDate purchaseDate) {
+    public static void addGroceryItem(User user, String name, String category, long price, int quantity, LocalDate purchaseDate) {
         GroceryItem item = new GroceryItem(name, category, price, quantity, purchaseDate);
         user.addGroceryItem(item);
-        user.getBudget().addCategoryExpense(category, price * quantity);
+        LedgerEvents.publish(new LedgerEvents.CategoryExpenseRecorded(user, category,
+                Money.multiply(price, quantity), purchaseDate)).join(); // covers the item too
         System.out.println("Grocery item added: " + item);
     }
 
@@ -641,20 +6200,20 @@ class GroceryService {
         System.out.println("+----+----------------------+----------------------+-----------+----------+------------+");
 
         int i = 1;
-        double total = 0;
+        long total = 0;
         for (GroceryItem item : user.getGroceryItems()) {
-            double itemTotal = item.getPrice() * item.getQuantity();
-            total += itemTotal;
-            System.out.printf("| %-2d | %-20s | %-20s | $%-8.2f | %-8d | $%-10.2f |\n",
+            long itemTotal = Money.multiply(item.getPrice(), item.getQuantity());
+            total = Money.add(total, itemTotal);
+            System.out.printf("| %-2d | %-20s | %-20s | $%-8s | %-8d | $%-10s |\n",
                     i++,
                     item.getName(),
                     item.getCategory(),
-                    item.getPrice(),
+                    Money.format(item.getPrice()),
                     item.getQuantity(),
-                    itemTotal);
+                    Money.format(itemTotal));
         }
         System.out.println("+----+----------------------+----------------------+-----------+----------+------------+");
-        System.out.printf("| %-68s | $%-10.2f |\n", "TOTAL", total);
+        System.out.printf("| %-68s | $%-10s |\n", "TOTAL", Money.format(total));
         System.out.println("+--------------------------------------------------------------------+------------+");
     }
 }
@@ -669,12 +6228,12 @@ class DonationService {
             "Credit Card", "Debit Card", "Bank Transfer", "Cash", "Check", "Online Payment"
     );
 
-    public static void addDonation(User user, String charityName, String charityType, double amount,
+    public static void addDonation(User user, String charityName, String charityType, long amount,
                                    LocalDate donationDate, String paymentMethod, boolean taxDeductible,
                                    String receiptId, String description) {
         Donation donation = new Donation(charityName, charityType, amount, donationDate,
                 paymentMethod, taxDeductible, receiptId, description);
-        user.addDonation(donation);
+        user.addDonation(donation).join();
         System.out.println("Donation recorded successfully!");
     }
 
@@ -691,24 +6250,26 @@ class DonationService {
 
         int i = 1;
         for (Donation donation : user.getDonations()) {
-            System.out.printf("| %-2d | %-20s | %-20s | $%-8.2f | %-10s | %-14s | %-12s |\n",
+            System.out.printf("| %-2d | %-20s | %-20s | $%-8s | %-10s | %-14s | %-12s |\n",
                     i++, donation.getCharityName(), donation.getCharityType(),
-                    donation.getAmount(), donation.getDonationDate().toString(),
+                    Money.format(donation.getAmount()), donation.getDonationDate().toString(),
                     donation.getPaymentMethod(), donation.isTaxDeductible() ? "Yes" : "No");
         }
         System.out.println("+----+----------------------+----------------------+-----------+------------+----------------+--------------+");
 
-        System.out.printf("Total Donations: $%.2f\n", user.getTotalDonations());
-        System.out.printf("Tax Deductible Donations: $%.2f\n", user.getTaxDeductibleDonations());
+        System.out.printf("Total Donations: $%s\n", Money.format(user.getTotalDonations()));
+        System.out.printf("Tax Deductible Donations: $%s\n", Money.format(user.getTaxDeductibleDonations()));
     }
 
     public static void generateTaxReport(User user, int year) {
         System.out.println("\n=== Tax Deduction Report for " + year + " ===");
 
-        double totalDeductible = user.getDonations().stream()
-                .filter(d -> d.isTaxDeductible() && d.getDonationDate().getYear() == year)
-                .mapToDouble(Donation::getAmount)
-                .sum();
+        long totalDeductible = 0;
+        for (Donation donation : user.getDonations()) {
+            if (donation.isTaxDeductible() && donation.getDonationDate().getYear() == year) {
+                totalDeductible = Money.add(totalDeductible, donation.getAmount());
+            }
+        }
 
         if (totalDeductible == 0) {
             System.out.println("No tax-deductible donations for " + year);
@@ -721,20 +6282,20 @@ class DonationService {
 
         for (Donation donation : user.getDonations()) {
             if (donation.isTaxDeductible() && donation.getDonationDate().getYear() == year) {
-                System.out.printf("| %-20s | %-20s | $%-8.2f | %-10s | %-12s |\n",
+                System.out.printf("| %-20s | %-20s | $%-8s | %-10s | %-12s |\n",
                         donation.getCharityName(), donation.getCharityType(),
-                        donation.getAmount(), donation.getDonationDate().toString(),
+                        Money.format(donation.getAmount()), donation.getDonationDate().toString(),
                         donation.getReceiptId());
             }
         }
         System.out.println("+----------------------+----------------------+-----------+------------+--------------+");
-        System.out.printf("Total Tax-Deductible Donations for %d: $%.2f\n", year, totalDeductible);
+        System.out.printf("Total Tax-Deductible Donations for %d: $%s\n", year, Money.format(totalDeductible));
     }
 
     public static void setDonationGoal(User user, double targetPercentage, String timeFrame,
                                        LocalDate startDate, LocalDate endDate, String preferredCategories) {
         DonationGoal goal = new DonationGoal(targetPercentage, timeFrame, startDate, endDate, preferredCategories);
-        user.setDonationGoal(goal);
+        LedgerEvents.publish(new LedgerEvents.DonationGoalSet(user, goal)).join();
         System.out.println("Donation goal set successfully!");
     }
 
@@ -745,22 +6306,22 @@ class DonationService {
         }
 
         DonationGoal goal = user.getDonationGoal();
-        double income = user.getBudget().getMonthlySalary() * 12; // Annual income
-        double targetAmount = goal.getTargetAmount(income);
+        long income = Money.multiply(user.getBudget().getMonthlySalary(), 12); // Annual income
+        long targetAmount = goal.getTargetAmount(income);
         double progress = goal.getProgressPercentage(income);
 
         System.out.println("\n=== Donation Goal Progress ===");
-        System.out.printf("Target: %.1f%% of income ($%.2f)\n", goal.getTargetPercentage(), targetAmount);
+        System.out.printf("Target: %.1f%% of income ($%s)\n", goal.getTargetPercentage(), Money.format(targetAmount));
         System.out.printf("Time Frame: %s (%s to %s)\n", goal.getTimeFrame(),
                 goal.getStartDate().toString(), goal.getEndDate().toString());
-        System.out.printf("Amount Donated: $%.2f\n", goal.getAmountDonated());
+        System.out.printf("Amount Donated: $%s\n", Money.format(goal.getAmountDonated()));
         System.out.printf("Progress: %.1f%%\n", progress);
 
         if (goal.isGoalAchieved(income)) {
             System.out.println("🎉 Congratulations! You've achieved your donation goal!");
         } else {
-            double remaining = targetAmount - goal.getAmountDonated();
-            System.out.printf("You need to donate $%.2f more to reach your goal.\n", remaining);
+            long remaining = Money.subtract(targetAmount, goal.getAmountDonated());
+            System.out.printf("You need to donate $%s more to reach your goal.\n", Money.format(remaining));
         }
     }
 
@@ -824,6 +6385,21 @@ class InputValidator {
         }
     }
 
+    public static long getValidMoney(Scanner scanner, String prompt) throws InvalidInputException {
+        System.out.print(prompt);
+        String token = scanner.next();
+        scanner.nextLine(); // Consume newline
+        try {
+            long amount = Money.parse(token);
+            if (amount <= 0) {
+                throw new InvalidInputException("Amount must be positive.");
+            }
+            return amount;
+        } catch (NumberFormatException | ArithmeticException e) {
+            throw new InvalidInputException("Invalid amount. Please enter a valid number.");
+        }
+    }
+
     public static LocalDate getValidDate(Scanner scanner, String prompt) throws InvalidInputException {
         System.out.print(prompt + " (YYYY-MM-DD): ");
         String dateStr = scanner.nextLine();
@@ -834,6 +6410,20 @@ class InputValidator {
         }
     }
 
+    // Blank input means no date
+    public static LocalDate getOptionalDate(Scanner scanner, String prompt) throws InvalidInputException {
+        System.out.print(prompt + " (YYYY-MM-DD, blank for none): ");
+        String dateStr = scanner.nextLine().trim();
+        if (dateStr.isEmpty()) {
+            return null;
+        }
+        try {
+            return LocalDate.parse(dateStr, DateTimeFormatter.ISO_DATE);
+        } catch (DateTimeParseException e) {
+            throw new InvalidInputException("Invalid date format. Please use YYYY-MM-DD.");
+        }
+    }
+
     public static int getValidInt(Scanner scanner, String prompt) throws InvalidInputException {
         System.out.print(prompt);
         try {
@@ -887,25 +6477,213 @@ class InputValidator {
 
 
 
+// Multi-session mode: each socket connection runs the regular menu flows on its own thread
+// with its own Project1 instance. Sessions use virtual threads when the runtime has them and
+// small-stack platform threads otherwise, so thousands of idle sessions stay cheap.
+class SessionServer {
+    private static final long PLATFORM_STACK_BYTES = 256 * 1024;
+    private static final AtomicInteger activeSessions = new AtomicInteger();
+
+    public static void serve(int port) throws IOException {
+        SessionOutput.install();
+        ThreadFactory threads = sessionThreadFactory();
+        try (ServerSocket server = new ServerSocket(port, 1024)) {
+            SessionOutput.console().println("Session server listening on port " + port);
+            while (true) {
+                Socket socket = server.accept();
+                threads.newThread(() -> runSession(socket)).start();
+            }
+        }
+    }
+
+    public static int getActiveSessions() {
+        return activeSessions.get();
+    }
+
+    private static void runSession(Socket socket) {
+        activeSessions.incrementAndGet();
+        try (Socket connection = socket) {
+            SessionOutput.bind(new PrintStream(connection.getOutputStream(), true, StandardCharsets.UTF_8));
+            new Project1(new Scanner(connection.getInputStream(), StandardCharsets.UTF_8)).run();
+        } catch (IOException e) {
+            SessionOutput.console().println("Session ended with error: " + e.getMessage());
+        } finally {
+            SessionOutput.unbind();
+            activeSessions.decrementAndGet();
+        }
+    }
+
+    // Thread.ofVirtual() only exists from JDK 21, so it is looked up reflectively
+    static ThreadFactory sessionThreadFactory() {
+        try {
+            Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            Class<?> builderType = Class.forName("java.lang.Thread$Builder");
+            builder = builderType.getMethod("name", String.class, long.class).invoke(builder, "session-", 0L);
+            return (ThreadFactory) builderType.getMethod("factory").invoke(builder);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            AtomicInteger counter = new AtomicInteger();
+            return task -> {
+                Thread thread = new Thread(null, task, "session-" + counter.getAndIncrement(), PLATFORM_STACK_BYTES);
+                thread.setDaemon(true);
+                return thread;
+            };
+        }
+    }
+}
+
+// System.out replacement that sends each thread's output to the session it is serving.
+// Threads without a session (main, reminder scheduler) keep writing to the console; async
+// event subscribers are bound to the session of the event they are handling.
+class SessionOutput extends OutputStream {
+    private static final ThreadLocal<PrintStream> target = new ThreadLocal<>();
+    private static PrintStream console = System.out;
+    private static boolean installed = false;
+
+    private SessionOutput() {}
+
+    public static synchronized void install() {
+        if (!installed) {
+            console = System.out;
+            System.setOut(new PrintStream(new SessionOutput(), true, StandardCharsets.UTF_8));
+            installed = true;
+        }
+    }
+
+    public static PrintStream console() {
+        return console;
+    }
+
+    public static void bind(PrintStream out) {
+        target.set(out);
+    }
+
+    public static void unbind() {
+        target.remove();
+    }
+
+    // The calling thread's session output, or null outside a session
+    static PrintStream bound() {
+        return target.get();
+    }
+
+    private static PrintStream current() {
+        PrintStream out = target.get();
+        return out != null ? out : console;
+    }
+
+    @Override
+    public void write(int b) {
+        current().write(b);
+    }
+
+    @Override
+    public void write(byte[] bytes, int offset, int length) {
+        current().write(bytes, offset, length);
+    }
+
+    @Override
+    public void flush() {
+        current().flush();
+    }
+}
+
 // Main Application
 public class Project1 {
-    private static Map<String, User> users = new HashMap<>();
-    private static User currentUser = null;
-    private static Scanner scanner = new Scanner(System.in);
-    private static boolean running = true;
-    private static final DecimalFormat df = new DecimalFormat("0.00");
+    private static SnapshotUserMap users = new SnapshotUserMap(null);
+    private static TransactionJournal journal = null;
+
+    private static final int HISTORY_PAGE_SIZE = 20;
+    private static final int SEARCH_LIMIT = 50;
+    private static final int PIPELINE_CAPACITY = 1 << 16;
 
+    // Per-session state: the console and every socket session get their own instance
+    private final Scanner scanner;
+    private User currentUser = null;
+    private boolean running = true;
+
+    Project1(Scanner scanner) {
+        this.scanner = scanner;
+    }
+
+    // Usage: java Project1            (single console session)
+    //        java Project1 --serve N  (one session per connection on port N)
+    //        java Project1 --reconcile (check ledger invariants, then exit)
+    //        java Project1 --as-of 2024-05-01T18:00 (print every user as of then, then exit)
+    // The session forms accept a trailing --pipeline to apply postings through PostingPipeline,
+    // and a trailing --event-sourced to rebuild every user from the journal, ignoring the snapshot.
     public static void main(String[] args) {
-        // Initialize with some sample data
-        initializeSampleData();
+        boolean pipelineMode = args.length > 0 && args[args.length - 1].equals("--pipeline");
+        if (pipelineMode) {
+            args = Arrays.copyOf(args, args.length - 1);
+        }
+        boolean eventSourced = args.length > 0 && args[args.length - 1].equals("--event-sourced");
+        if (eventSourced) {
+            args = Arrays.copyOf(args, args.length - 1);
+        }
+        if (args.length == 2 && args[0].equals("--as-of")) {
+            printUsersAsOf(args[1]);
+            return;
+        }
+        // Map the last snapshot (users load lazily), then replay newer postings from the journal.
+        // Sample data is only created on the very first run. Old history spills to segments.
+        try {
+            HistorySegments.enable(Paths.get(HistorySegments.DEFAULT_DIRECTORY));
+        } catch (IOException e) {
+            System.out.println(ConsoleColors.RED + "Could not open history segments: " + e.getMessage() + ConsoleColors.RESET);
+        }
+        UserSnapshot snapshot = null;
+        try {
+            snapshot = eventSourced ? null : UserSnapshot.open(UserSnapshot.DEFAULT_PATH);
+        } catch (IOException e) {
+            System.out.println(ConsoleColors.RED + "Could not load snapshot: " + e.getMessage() + ConsoleColors.RESET);
+        }
+        users = new SnapshotUserMap(snapshot);
+        try {
+            journal = TransactionJournal.open(TransactionJournal.DEFAULT_PATH, users,
+                    snapshot == null ? 0 : snapshot.getJournalOffset());
+            Account.attachJournal(journal);
+        } catch (IOException e) {
+            System.out.println(ConsoleColors.RED + "Could not open transaction journal: " + e.getMessage() + ConsoleColors.RESET);
+        }
+        if (users.isEmpty()) {
+            initializeSampleData();
+        }
+        if (args.length == 1 && args[0].equals("--reconcile")) {
+            AccountService.reconcile(users.values());
+            closeJournal();
+            return;
+        }
 
         // Start background services
-        ReminderService.startReminderChecker(users);
+        ShardedUserRegistry registry = new ShardedUserRegistry(users, Runtime.getRuntime().availableProcessors());
+        AccountService.useRegistry(registry);
+        PostingPipeline pipeline = pipelineMode ? new PostingPipeline(PIPELINE_CAPACITY, journal, null) : null;
+        AccountService.usePipeline(pipeline);
+        ReminderService.startReminderChecker(users.loadedValues());
         Runtime.getRuntime().addShutdownHook(new Thread(() -> {
             ReminderService.stopReminderChecker();
+            registry.shutdown();
+            if (pipeline != null) {
+                pipeline.shutdown();
+            }
+            closeJournal();
+            writeSnapshot();
         }));
 
-        // Main application loop
+        if (args.length == 2 && args[0].equals("--serve")) {
+            try {
+                SessionServer.serve(Integer.parseInt(args[1]));
+            } catch (IOException | NumberFormatException e) {
+                System.out.println(ConsoleColors.RED + "Could not start session server: " + e.getMessage() + ConsoleColors.RESET);
+            }
+            return;
+        }
+        new Project1(new Scanner(System.in)).run();
+        ReminderService.stopReminderChecker(); // lets the JVM exit and the shutdown hook run
+    }
+
+    // Main application loop of one session
+    void run() {
         while (running) {
             if (currentUser == null) {
                 showMainMenu();
@@ -919,10 +6697,10 @@ public class Project1 {
     }
 
     // ================= BUDGET METHODS ===================
-    private static void setBudget() {
+    private void setBudget() {
         try {
-            double salary = InputValidator.getValidAmount(scanner, "Enter monthly salary: $");
-            double limit = InputValidator.getValidAmount(scanner, "Enter monthly budget limit: $");
+            long salary = InputValidator.getValidMoney(scanner, "Enter monthly salary: $");
+            long limit = InputValidator.getValidMoney(scanner, "Enter monthly budget limit: $");
 
             BudgetService.setMonthlyBudget(currentUser, salary, limit);
         } catch (InvalidInputException e) {
@@ -930,14 +6708,68 @@ public class Project1 {
         }
     }
 
-    private static void recordWeeklyExpenses() {
-        BudgetService.recordWeeklyExpenses(currentUser);
+    private void recordWeeklyExpenses() {
+        try {
+            BudgetService.recordWeeklyExpenses(currentUser, scanner);
+        } catch (InvalidInputException e) {
+            System.out.println(ConsoleColors.RED + "Error: " + e.getMessage() + ConsoleColors.RESET);
+        }
     }
 
-    private static void showBudgetReport() {
+    private void showBudgetReport() {
         BudgetService.showBudgetReport(currentUser);
     }
 
+    private static void closeJournal() {
+        if (journal == null) {
+            return;
+        }
+        try {
+            journal.close();
+        } catch (IOException e) {
+            System.out.println("Error closing transaction journal: " + e.getMessage());
+        }
+    }
+
+    // Replays the journal up to the given local date-time; the live state is not touched
+    private static void printUsersAsOf(String dateTime) {
+        long asOf;
+        try {
+            asOf = LocalDateTime.parse(dateTime).atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+        } catch (DateTimeParseException e) {
+            System.out.println(ConsoleColors.RED + "Invalid date-time (expected e.g. 2024-05-01T18:00): " + dateTime + ConsoleColors.RESET);
+            return;
+        }
+        Map<String, User> asOfUsers;
+        try {
+            asOfUsers = TransactionJournal.replayAsOf(TransactionJournal.DEFAULT_PATH, asOf,
+                    Runtime.getRuntime().availableProcessors());
+        } catch (IOException e) {
+            System.out.println(ConsoleColors.RED + "Could not read transaction journal: " + e.getMessage() + ConsoleColors.RESET);
+            return;
+        }
+        System.out.println("\n=== Users as of " + dateTime + " ===");
+        for (User user : asOfUsers.values()) {
+            System.out.printf("%-10s %-20s Balance: $%-10s Expenses: $%-10s Reminders: %d  Groceries: %d  Donations: %d%n",
+                    user.getAccountNumber(), user.getName(), Money.format(user.getAccount().getBalance()),
+                    Money.format(user.getBudget().getCurrentExpenses()), user.getReminders().size(),
+                    user.getGroceryItems().size(), user.getDonations().size());
+        }
+    }
+
+    // Checkpoints every user so the next start only replays postings made after this point
+    private static void writeSnapshot() {
+        if (journal == null) {
+            return; // without a journal there is no offset to checkpoint against
+        }
+        try {
+            long journalOffset = Files.size(TransactionJournal.DEFAULT_PATH);
+            users.checkpoint(UserSnapshot.DEFAULT_PATH, journalOffset);
+        } catch (IOException e) {
+            System.out.println("Error writing snapshot: " + e.getMessage());
+        }
+    }
+
     private static void initializeSampleData() {
         User user1 = new User("John Doe", "john@example.com", "1234567890", "password123", "ACC001",
                 "123 Main St, City", "Software Engineer", 30);
@@ -946,36 +6778,39 @@ public class Project1 {
 
         users.put("ACC001", user1);
         users.put("ACC002", user2);
+        if (journal != null) {
+            journal.logRegistration(user1);
+            journal.logRegistration(user2);
+        }
 
         // Add sample transactions
         try {
-            user1.getAccount().deposit(1500.0, "Initial deposit");
-            user1.getAccount().withdraw(200.0, "Grocery shopping");
-            user1.getAccount().transfer(user2.getAccount(), 100.0, "Dinner payment");
+            user1.getAccount().deposit(Money.of(1500.0), "Initial deposit");
+            user1.getAccount().withdraw(Money.of(200.0), "Grocery shopping");
+            user1.getAccount().transfer(user2.getAccount(), Money.of(100.0), "Dinner payment");
         } catch (InsufficientBalanceException e) {
             System.out.println("Error initializing sample data: " + e.getMessage());
         }
 
         // Set sample budget
-        user1.getBudget().setMonthlySalary(3000.0);
-        user1.getBudget().setBudgetLimit(2000.0);
+        LedgerEvents.publish(new LedgerEvents.BudgetSet(user1, Money.of(3000.0), Money.of(2000.0)));
 
         // Add sample reminders
-        user1.addReminder(new Reminder("Electricity Bill", 75.0, LocalDate.now().plusDays(5),
+        user1.addReminder(new Reminder("Electricity Bill", Money.of(75.0), LocalDate.now().plusDays(5),
                 "Monthly electricity bill", "High"));
-        user1.addReminder(new Reminder("Internet Bill", 45.0, LocalDate.now().plusDays(10),
+        user1.addReminder(new Reminder("Internet Bill", Money.of(45.0), LocalDate.now().plusDays(10),
                 "Monthly internet subscription", "Medium"));
 
         // Add sample grocery items
-        user1.addGroceryItem(new GroceryItem("Apples", "Fruits", 2.50, 5, LocalDate.now()));
-        user1.addGroceryItem(new GroceryItem("Milk", "Dairy", 3.00, 2, LocalDate.now()));
-        user1.addGroceryItem(new GroceryItem("Bread", "Bakery", 2.00, 3, LocalDate.now()));
+        user1.addGroceryItem(new GroceryItem("Apples", "Fruits", Money.of(2.50), 5, LocalDate.now()));
+        user1.addGroceryItem(new GroceryItem("Milk", "Dairy", Money.of(3.00), 2, LocalDate.now()));
+        user1.addGroceryItem(new GroceryItem("Bread", "Bakery", Money.of(2.00), 3, LocalDate.now()));
 
         // Add sample donations
-        user1.addDonation(new Donation("Red Cross", "Disaster Relief", 100.0,
+        user1.addDonation(new Donation("Red Cross", "Disaster Relief", Money.of(100.0),
                 LocalDate.now().minusMonths(2), "Credit Card",
                 true, "RC12345", "Monthly donation"));
-        user1.addDonation(new Donation("Local Food Bank", "Other", 50.0,
+        user1.addDonation(new Donation("Local Food Bank", "Other", Money.of(50.0),
                 LocalDate.now().minusMonths(1), "Cash",
                 true, "FB67890", "Thanksgiving donation"));
 
@@ -984,11 +6819,11 @@ public class Project1 {
                 LocalDate.now().withDayOfYear(1),
                 LocalDate.now().withDayOfYear(365),
                 "Education, Health");
-        goal.addDonation(150.0); // Add existing donations to goal
-        user1.setDonationGoal(goal);
+        goal.addDonation(Money.of(150.0)); // Add existing donations to goal
+        LedgerEvents.publish(new LedgerEvents.DonationGoalSet(user1, goal));
     }
 
-    private static void recordDonation() {
+    private void recordDonation() {
         try {
             System.out.println("\n=== Record Donation ===");
 
@@ -1003,7 +6838,7 @@ public class Project1 {
             int typeChoice = InputValidator.getValidInt(scanner, "Enter choice: ");
             String charityType = charityTypes.get(typeChoice - 1);
 
-            double amount = InputValidator.getValidAmount(scanner, "Enter donation amount: $");
+            long amount = InputValidator.getValidMoney(scanner, "Enter donation amount: $");
             LocalDate donationDate = InputValidator.getValidDate(scanner, "Enter donation date");
 
             List<String> paymentMethods = DonationService.getPaymentMethods();
@@ -1034,7 +6869,7 @@ public class Project1 {
         }
     }
 
-    private static void generateTaxReport() {
+    private void generateTaxReport() {
         try {
             int currentYear = LocalDate.now().getYear();
             System.out.print("Enter year for tax report (" + (currentYear - 1) + " or " + currentYear + "): ");
@@ -1048,7 +6883,7 @@ public class Project1 {
         }
     }
 
-    private static void setDonationGoal() {
+    private void setDonationGoal() {
         try {
             System.out.println("\n=== Set Donation Goal ===");
 
@@ -1109,7 +6944,7 @@ public class Project1 {
         }
     }
 
-    private static void showMainMenu() {
+    private void showMainMenu() {
         System.out.println("\n" + ConsoleColors.CYAN_BACKGROUND + ConsoleColors.BLACK_BOLD +
                 "=== Smart Finance & Payment Manager ===" + ConsoleColors.RESET);
         System.out.println("1. Register");
@@ -1138,10 +6973,12 @@ public class Project1 {
         } catch (InputMismatchException e) {
             System.out.println(ConsoleColors.RED + "Invalid input. Please enter a number." + ConsoleColors.RESET);
             scanner.nextLine(); // Clear invalid input
+        } catch (NoSuchElementException e) {
+            running = false; // input closed
         }
     }
 
-    private static void showUserMenu() {
+    private void showUserMenu() {
         System.out.println("\n" + ConsoleColors.GREEN_BOLD + "=== Welcome, " + currentUser.getName() + " ===" + ConsoleColors.RESET);
         System.out.println("1. Deposit");
         System.out.println("2. Withdraw");
@@ -1172,7 +7009,7 @@ public class Project1 {
                 case 1: depositMoney(); break;
                 case 2: withdrawMoney(); break;
                 case 3: transferMoney(); break;
-                case 4: AccountService.showTransactionHistory(currentUser); break;
+                case 4: showTransactionHistory(); break;
                 case 5: addReminder(); break;
                 case 6: ReminderService.viewReminders(currentUser); break;
                 case 7: markReminderAsPaid(); break;
@@ -1193,13 +7030,15 @@ public class Project1 {
         } catch (InputMismatchException e) {
             System.out.println(ConsoleColors.RED + "Invalid input. Please enter a number." + ConsoleColors.RESET);
             scanner.nextLine(); // Clear invalid input
+        } catch (NoSuchElementException e) {
+            running = false; // input closed
         } catch (Exception e) {
             System.out.println(ConsoleColors.RED + "Error: " + e.getMessage() + ConsoleColors.RESET);
         }
     }
 
 
-    private static void registerUser() {
+    private void registerUser() {
         System.out.println("\n" + ConsoleColors.CYAN_BOLD + "=== User Registration ===" + ConsoleColors.RESET);
 
         try {
@@ -1224,7 +7063,12 @@ public class Project1 {
             int age = InputValidator.getValidInt(scanner, "Enter age: ");
 
             User newUser = new User(name, email, phone, password, accountNumber, address, occupation, age);
-            users.put(accountNumber, newUser);
+            if (users.putIfAbsent(accountNumber, newUser) != null) {
+                throw new InvalidInputException("Account number already exists. Please try a different one.");
+            }
+            if (journal != null) {
+                journal.logRegistration(newUser);
+            }
             System.out.println(ConsoleColors.GREEN + "Registration successful! You can now login." + ConsoleColors.RESET);
 
             // Show user details
@@ -1242,7 +7086,7 @@ public class Project1 {
         }
     }
 
-    private static void loginUser() {
+    private void loginUser() {
         System.out.println("\n" + ConsoleColors.CYAN_BOLD + "=== User Login ===" + ConsoleColors.RESET);
         System.out.print("Enter account number: ");
         String accountNumber = scanner.nextLine();
@@ -1256,7 +7100,14 @@ public class Project1 {
         }
 
         User user = users.get(accountNumber);
-        if (user.validatePassword(password)) {
+        boolean valid;
+        try {
+            valid = user.validatePassword(password);
+        } catch (InvalidUserException e) {
+            System.out.println(ConsoleColors.RED + e.getMessage() + ConsoleColors.RESET);
+            return;
+        }
+        if (valid) {
             currentUser = user;
             System.out.println(ConsoleColors.GREEN + "Login successful! Welcome, " + user.getName() + ConsoleColors.RESET);
 
@@ -1265,16 +7116,18 @@ public class Project1 {
             System.out.println("Name: " + user.getName());
             System.out.println("Email: " + user.getEmail());
             System.out.println("Account Number: " + user.getAccountNumber());
-            System.out.println("Balance: $" + df.format(user.getAccount().getBalance()));
+            AccountBalance balance = user.getAccount().readBalance();
+            System.out.println("Balance: $" + Money.format(balance.getBalance())
+                    + " (" + balance.getTransactionCount() + " transactions)");
 
         } else {
             System.out.println(ConsoleColors.RED + "Invalid password. Please try again." + ConsoleColors.RESET);
         }
     }
 
-    private static void depositMoney() {
+    private void depositMoney() {
         try {
-            double amount = InputValidator.getValidAmount(scanner, "Enter deposit amount: $");
+            long amount = InputValidator.getValidMoney(scanner, "Enter deposit amount: $");
             System.out.print("Enter description: ");
             String description = scanner.nextLine();
 
@@ -1284,9 +7137,9 @@ public class Project1 {
         }
     }
 
-    private static void withdrawMoney() {
+    private void withdrawMoney() {
         try {
-            double amount = InputValidator.getValidAmount(scanner, "Enter withdrawal amount: $");
+            long amount = InputValidator.getValidMoney(scanner, "Enter withdrawal amount: $");
             System.out.print("Enter description: ");
             String description = scanner.nextLine();
 
@@ -1296,12 +7149,12 @@ public class Project1 {
         }
     }
 
-    private static void transferMoney() {
+    private void transferMoney() {
         try {
             System.out.print("Enter recipient account number: ");
             String toAccount = scanner.nextLine();
 
-            double amount = InputValidator.getValidAmount(scanner, "Enter transfer amount: $");
+            long amount = InputValidator.getValidMoney(scanner, "Enter transfer amount: $");
             System.out.print("Enter description: ");
             String description = scanner.nextLine();
 
@@ -1311,12 +7164,50 @@ public class Project1 {
         }
     }
 
-    private static void addReminder() {
+    private void showTransactionHistory() {
+        try {
+            System.out.print("Search descriptions (blank to browse by date): ");
+            String search = scanner.nextLine().trim();
+            if (!search.isEmpty()) {
+                AccountService.searchTransactions(currentUser, search, SEARCH_LIMIT);
+                return;
+            }
+            LocalDate from = InputValidator.getOptionalDate(scanner, "From date");
+            LocalDate to = InputValidator.getOptionalDate(scanner, "To date");
+            System.out.print("Type (DEPOSIT/WITHDRAW/TRANSFER, blank for all): ");
+            String type = scanner.nextLine().trim().toUpperCase();
+            String[] types;
+            switch (type) {
+                case "": types = new String[0]; break;
+                case "DEPOSIT": case "WITHDRAW": types = new String[] {type}; break;
+                case "TRANSFER": types = new String[] {"TRANSFER_TO", "TRANSFER_FROM"}; break;
+                default: throw new InvalidInputException("Unknown transaction type: " + type);
+            }
+            ZoneId zone = ZoneId.systemDefault();
+            HistoryQuery query = new HistoryQuery(
+                    from == null ? Long.MIN_VALUE : from.atStartOfDay(zone).toInstant().toEpochMilli(),
+                    to == null ? Long.MAX_VALUE : to.plusDays(1).atStartOfDay(zone).toInstant().toEpochMilli(),
+                    HISTORY_PAGE_SIZE, types);
+
+            long cursor = AccountService.showTransactionHistory(currentUser, query, 0);
+            while (cursor != HistoryPage.END) {
+                System.out.print("Press Enter for more, or q to stop: ");
+                if (scanner.nextLine().trim().equalsIgnoreCase("q")) {
+                    break;
+                }
+                cursor = AccountService.showTransactionHistory(currentUser, query, cursor);
+            }
+        } catch (InvalidInputException e) {
+            System.out.println(ConsoleColors.RED + "Error: " + e.getMessage() + ConsoleColors.RESET);
+        }
+    }
+
+    private void addReminder() {
         try {
             System.out.print("Enter bill type: ");
             String billType = scanner.nextLine();
 
-            double amount = InputValidator.getValidAmount(scanner, "Enter bill amount: $");
+            long amount = InputValidator.getValidMoney(scanner, "Enter bill amount: $");
             LocalDate dueDate = InputValidator.getValidDate(scanner, "Enter due date");
 
             System.out.print("Enter description: ");
@@ -1331,7 +7222,7 @@ public class Project1 {
         }
     }
 
-    private static void markReminderAsPaid() {
+    private void markReminderAsPaid() {
         try {
             ReminderService.viewReminders(currentUser);
             int index = InputValidator.getValidInt(scanner, "Enter reminder number to mark as paid: ");
@@ -1341,10 +7232,10 @@ public class Project1 {
         }
     }
 
-    private static void getBudget() {
+    private void getBudget() {
         try {
-            double salary = InputValidator.getValidAmount(scanner, "Enter monthly salary: $");
-            double limit = InputValidator.getValidAmount(scanner, "Enter monthly budget limit: $");
+            long salary = InputValidator.getValidMoney(scanner, "Enter monthly salary: $");
+            long limit = InputValidator.getValidMoney(scanner, "Enter monthly budget limit: $");
 
             BudgetService.setMonthlyBudget(currentUser, salary, limit);
         } catch (InvalidInputException e) {
@@ -1352,7 +7243,7 @@ public class Project1 {
         }
     }
 
-    private static void addGroceryItem() {
+    private void addGroceryItem() {
         try {
             System.out.print("Enter item name: ");
             String name = scanner.nextLine();
@@ -1361,7 +7252,7 @@ public class Project1 {
 
             String category = scanner.nextLine();
 
-            double price = InputValidator.getValidAmount(scanner, "Enter price per unit: $");
+            long price = InputValidator.getValidMoney(scanner, "Enter price per unit: $");
             int quantity = InputValidator.getValidInt(scanner, "Enter quantity: ");
             LocalDate purchaseDate = InputValidator.getValidDate(scanner, "Enter purchase date");
 
@@ -1371,11 +7262,11 @@ public class Project1 {
         }
     }
 
-    private static void removeGroceryItem() {
+    private void removeGroceryItem() {
         try {
             GroceryService.viewGroceryItems(currentUser);
             int index = InputValidator.getValidInt(scanner, "Enter item number to remove: ");
-            currentUser.removeGroceryItem(index - 1);
+            currentUser.removeGroceryItem(index - 1).join();
             System.out.println("Item removed successfully.");
         } catch (InvalidInputException e) {
             System.out.println(ConsoleColors.RED + "Error: " + e.getMessage() + ConsoleColors.RESET);